@@ -0,0 +1,138 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Lookups from the top of a deep diamond graph of siblings. The graph has {@code depth} layers of
+ * {@code width} classloaders. Each classloader has all the classloaders of the next layer as siblings,
+ * so the classloaders of the last layer are reachable through {@code width ^ (depth - 1)} paths.
+ * Only the classloaders of the last layer contain a JAR file.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DiamondBenchmark {
+
+  @Param({"4", "8"})
+  public int depth;
+
+  @Param({"2", "4"})
+  public int width;
+
+  private File dir;
+  private ClassLoader top;
+  private String bottomClass;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("sonar-classloader-bench").toFile();
+    ClassloaderBuilder builder = new ClassloaderBuilder();
+    builder.newClassloader("top");
+    for (int layer = 1; layer <= depth; layer++) {
+      for (int i = 0; i < width; i++) {
+        String key = key(layer, i);
+        builder.newClassloader(key);
+        if (layer == depth) {
+          String packageName = "bench/d" + i;
+          Map<String, String> resources = new LinkedHashMap<>();
+          resources.put(RealmGraphFixture.SHARED_RESOURCE, key);
+          File jar = SyntheticJars.write(new File(dir, key + ".jar"), Collections.singletonList(packageName + "/C0"), resources);
+          builder.addURL(key, jar.toURI().toURL());
+        }
+      }
+    }
+    for (int i = 0; i < width; i++) {
+      builder.addSibling("top", key(1, i), Mask.ALL);
+    }
+    for (int layer = 1; layer < depth; layer++) {
+      for (int i = 0; i < width; i++) {
+        for (int next = 0; next < width; next++) {
+          builder.addSibling(key(layer, i), key(layer + 1, next), Mask.ALL);
+        }
+      }
+    }
+    top = builder.build().get("top");
+    bottomClass = "bench.d" + (width - 1) + ".C0";
+  }
+
+  private static String key(int layer, int index) {
+    return "layer" + layer + "_" + index;
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    SyntheticJars.delete(dir);
+  }
+
+  @Benchmark
+  public boolean loadClass_miss() {
+    try {
+      top.loadClass("bench.missing.Missing");
+      return true;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+  @Benchmark
+  public Class loadClass_hit_last_bottom() throws ClassNotFoundException {
+    return top.loadClass(bottomClass);
+  }
+
+  @Benchmark
+  public URL getResource_miss() {
+    return top.getResource("bench/missing/config.properties");
+  }
+
+  @Benchmark
+  public void getResources_hit(Blackhole blackhole) throws IOException {
+    Enumeration<URL> urls = top.getResources(RealmGraphFixture.SHARED_RESOURCE);
+    while (urls.hasMoreElements()) {
+      blackhole.consume(urls.nextElement());
+    }
+  }
+}
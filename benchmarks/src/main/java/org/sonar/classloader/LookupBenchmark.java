@@ -0,0 +1,154 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Lookups of classes and resources from the last classloader of a {@link RealmGraphFixture}.
+ * Run with several threads (option -t) to measure contention.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LookupBenchmark {
+
+  @Param({"10", "50"})
+  public int realms;
+
+  @Param({"1", "5"})
+  public int siblingsPerRealm;
+
+  @Param({"100", "1000"})
+  public int classesPerJar;
+
+  @Param({"10", "500"})
+  public int maskSize;
+
+  @Param({"PARENT_FIRST", "SELF_FIRST"})
+  public ClassloaderBuilder.LoadingOrder order;
+
+  @Param({"false", "true"})
+  public boolean packageRouting;
+
+  private RealmGraphFixture fixture;
+  private ClassLoader classloader;
+  private String selfClass;
+  private String siblingClass;
+  private String parentClass;
+  private String selfResource;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    fixture = new RealmGraphFixture(realms, siblingsPerRealm, classesPerJar, maskSize, order, packageRouting);
+    classloader = fixture.lastPlugin();
+    selfClass = fixture.classOfLastPlugin();
+    siblingClass = fixture.classOfFarthestSibling();
+    parentClass = fixture.classOfParent();
+    selfResource = fixture.resourceOfLastPlugin();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    fixture.delete();
+  }
+
+  @Benchmark
+  public Class loadClass_hit_self() throws ClassNotFoundException {
+    return classloader.loadClass(selfClass);
+  }
+
+  @Benchmark
+  public Class loadClass_hit_sibling() throws ClassNotFoundException {
+    return classloader.loadClass(siblingClass);
+  }
+
+  @Benchmark
+  public Class loadClass_hit_parent() throws ClassNotFoundException {
+    return classloader.loadClass(parentClass);
+  }
+
+  @Benchmark
+  public Class loadClass_hit_jdk() throws ClassNotFoundException {
+    return classloader.loadClass("java.util.ArrayList");
+  }
+
+  @Benchmark
+  public boolean loadClass_miss() {
+    try {
+      classloader.loadClass("bench.missing.Missing");
+      return true;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+  @Benchmark
+  public URL getResource_hit() {
+    return classloader.getResource(selfResource);
+  }
+
+  @Benchmark
+  public URL getResource_miss() {
+    return classloader.getResource("bench/missing/config.properties");
+  }
+
+  @Benchmark
+  public void getResources_hit(Blackhole blackhole) throws IOException {
+    consume(classloader.getResources(RealmGraphFixture.SHARED_RESOURCE), blackhole);
+  }
+
+  @Benchmark
+  public void getResources_first_hit(Blackhole blackhole) throws IOException {
+    Enumeration<URL> urls = classloader.getResources(RealmGraphFixture.SHARED_RESOURCE);
+    blackhole.consume(urls.hasMoreElements() ? urls.nextElement() : null);
+  }
+
+  @Benchmark
+  public void getResources_miss(Blackhole blackhole) throws IOException {
+    consume(classloader.getResources("bench/missing/config.properties"), blackhole);
+  }
+
+  private static void consume(Enumeration<URL> urls, Blackhole blackhole) {
+    while (urls.hasMoreElements()) {
+      blackhole.consume(urls.nextElement());
+    }
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Checks of names against a {@link Mask} made of many package inclusions
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MaskBenchmark {
+
+  @Param({"1", "10", "100", "1000"})
+  public int maskSize;
+
+  private Mask mask;
+  private String includedResource;
+  private String includedClass;
+
+  @Setup
+  public void setUp() {
+    mask = RealmGraphFixture.mask(maskSize, "bench/api/");
+    includedResource = "bench/api/internal/Foo.class";
+    includedClass = "bench.api.internal.Foo";
+  }
+
+  @Benchmark
+  public boolean acceptResource_hit() {
+    return mask.acceptResource(includedResource);
+  }
+
+  @Benchmark
+  public boolean acceptResource_miss() {
+    return mask.acceptResource("org/other/Foo.class");
+  }
+
+  @Benchmark
+  public boolean acceptClass_hit() {
+    return mask.acceptClass(includedClass);
+  }
+
+  @Benchmark
+  public boolean acceptClass_miss() {
+    return mask.acceptClass("org.other.Foo");
+  }
+}
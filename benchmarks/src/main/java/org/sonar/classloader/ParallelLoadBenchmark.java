@@ -0,0 +1,154 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Concurrent definition of classes by a single classloader. Each iteration builds a new classloader, then each
+ * thread loads {@code classesPerThread} classes. With {@code loadDistinctClasses_*}, threads load different classes
+ * and take different locks of class names. With {@code loadSameClasses_*}, all threads load the same classes and wait
+ * for each other on the locks of class names.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class ParallelLoadBenchmark {
+
+  // threads beyond this number load the classes of other threads
+  private static final int MAX_THREADS = 16;
+
+  @State(Scope.Benchmark)
+  public static class Classloader {
+    @Param({"500"})
+    public int classesPerThread;
+
+    private final AtomicInteger threads = new AtomicInteger();
+    private File dir;
+    private File jar;
+    private ClassLoader classloader;
+
+    @Setup(Level.Trial)
+    public void writeJar() throws IOException {
+      dir = Files.createTempDirectory("sonar-classloader-bench").toFile();
+      List<String> classNames = new ArrayList<>();
+      for (int thread = 0; thread < MAX_THREADS; thread++) {
+        for (int i = 0; i < classesPerThread; i++) {
+          classNames.add(internalName(thread, i));
+        }
+      }
+      jar = SyntheticJars.write(new File(dir, "classes.jar"), classNames, Collections.emptyMap());
+    }
+
+    @Setup(Level.Iteration)
+    public void build() throws IOException {
+      classloader = new ClassloaderBuilder()
+        .newClassloader("the-cl")
+        .addURL("the-cl", jar.toURI().toURL())
+        .build()
+        .get("the-cl");
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() throws IOException {
+      ((ClassRealm) classloader).close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      SyntheticJars.delete(dir);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class ThreadClasses {
+    private String[] distinct;
+    private String[] same;
+
+    @Setup(Level.Trial)
+    public void setUp(Classloader state) {
+      int thread = state.threads.getAndIncrement() % MAX_THREADS;
+      distinct = new String[state.classesPerThread];
+      same = new String[state.classesPerThread];
+      for (int i = 0; i < state.classesPerThread; i++) {
+        distinct[i] = internalName(thread, i).replace('/', '.');
+        same[i] = internalName(0, i).replace('/', '.');
+      }
+    }
+  }
+
+  private static String internalName(int thread, int index) {
+    return "bench/t" + thread + "/C" + index;
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void loadDistinctClasses_1_thread(Classloader state, ThreadClasses classes, Blackhole blackhole) throws ClassNotFoundException {
+    load(state.classloader, classes.distinct, blackhole);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void loadDistinctClasses_4_threads(Classloader state, ThreadClasses classes, Blackhole blackhole) throws ClassNotFoundException {
+    load(state.classloader, classes.distinct, blackhole);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public void loadDistinctClasses_8_threads(Classloader state, ThreadClasses classes, Blackhole blackhole) throws ClassNotFoundException {
+    load(state.classloader, classes.distinct, blackhole);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public void loadSameClasses_8_threads(Classloader state, ThreadClasses classes, Blackhole blackhole) throws ClassNotFoundException {
+    load(state.classloader, classes.same, blackhole);
+  }
+
+  private static void load(ClassLoader classloader, String[] classnames, Blackhole blackhole) throws ClassNotFoundException {
+    for (String classname : classnames) {
+      blackhole.consume(classloader.loadClass(classname));
+    }
+  }
+}
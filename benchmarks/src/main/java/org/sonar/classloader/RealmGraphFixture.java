@@ -0,0 +1,125 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Graph of classloaders built from synthetic JAR files:
+ * <ul>
+ *   <li>classloader "api" contains the package bench.api</li>
+ *   <li>classloaders "plugin0" to "pluginN" contain their own package, for example bench.p0, and the
+ *   resource META-INF/bench.txt. They have "api" as parent and the previous plugins as siblings.</li>
+ * </ul>
+ * Masks of parent and siblings contain the required patterns and filler patterns of other packages.
+ */
+class RealmGraphFixture {
+
+  static final String SHARED_RESOURCE = "META-INF/bench.txt";
+
+  private final File dir;
+  private final int realms;
+  private final int siblingsPerRealm;
+  private final Map<String, ClassLoader> classloaders;
+
+  RealmGraphFixture(int realms, int siblingsPerRealm, int classesPerJar, int maskSize, ClassloaderBuilder.LoadingOrder order,
+    boolean packageRouting) throws IOException {
+    this.dir = Files.createTempDirectory("sonar-classloader-bench").toFile();
+    this.realms = realms;
+    this.siblingsPerRealm = siblingsPerRealm;
+
+    ClassloaderBuilder builder = new ClassloaderBuilder().setPackageRouting(packageRouting);
+    builder.newClassloader("api").addURL("api", writeJar("api", classesPerJar).toURI().toURL());
+    for (int i = 0; i < realms; i++) {
+      String key = pluginKey(i);
+      builder
+        .newClassloader(key)
+        .addURL(key, writeJar("p" + i, classesPerJar).toURI().toURL())
+        .setParent(key, "api", mask(maskSize, "bench/api/"))
+        .setLoadingOrder(key, order);
+      for (int sibling = i - 1; sibling >= 0 && sibling >= i - siblingsPerRealm; sibling--) {
+        builder.addSibling(key, pluginKey(sibling), mask(maskSize, "bench/p" + sibling + "/", SHARED_RESOURCE));
+      }
+    }
+    this.classloaders = builder.build();
+  }
+
+  private static String pluginKey(int index) {
+    return "plugin" + index;
+  }
+
+  private File writeJar(String packageName, int classes) throws IOException {
+    List<String> classNames = new ArrayList<>();
+    for (int i = 0; i < classes; i++) {
+      classNames.add("bench/" + packageName + "/C" + i);
+    }
+    Map<String, String> resources = new LinkedHashMap<>();
+    resources.put("bench/" + packageName + "/config.properties", "package=" + packageName);
+    resources.put(SHARED_RESOURCE, packageName);
+    return SyntheticJars.write(new File(dir, packageName + ".jar"), classNames, resources);
+  }
+
+  /**
+   * Mask including the given patterns, completed with inclusions of other packages up to the requested size
+   */
+  static Mask mask(int size, String... patterns) {
+    Mask.Builder builder = Mask.builder();
+    for (String pattern : patterns) {
+      builder.include(pattern);
+    }
+    for (int i = patterns.length; i < size; i++) {
+      builder.include("bench/filler" + i + "/");
+    }
+    return builder.build();
+  }
+
+  /**
+   * The last plugin, which has the most siblings
+   */
+  ClassLoader lastPlugin() {
+    return classloaders.get(pluginKey(realms - 1));
+  }
+
+  String classOfLastPlugin() {
+    return "bench.p" + (realms - 1) + ".C0";
+  }
+
+  String classOfFarthestSibling() {
+    return "bench.p" + Math.max(0, realms - 1 - siblingsPerRealm) + ".C0";
+  }
+
+  String classOfParent() {
+    return "bench.api.C0";
+  }
+
+  String resourceOfLastPlugin() {
+    return "bench/p" + (realms - 1) + "/config.properties";
+  }
+
+  void delete() {
+    SyntheticJars.delete(dir);
+  }
+}
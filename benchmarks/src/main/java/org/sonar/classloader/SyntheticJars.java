@@ -0,0 +1,104 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Generates JAR files of empty classes and resources
+ */
+class SyntheticJars {
+
+  private SyntheticJars() {
+    // only static methods
+  }
+
+  /**
+   * @param classes internal names of classes, for example "org/foo/Bar"
+   * @param resources content of resources by name
+   */
+  static File write(File file, Iterable<String> classes, Map<String, String> resources) throws IOException {
+    try (JarOutputStream output = new JarOutputStream(new FileOutputStream(file))) {
+      for (String internalName : classes) {
+        output.putNextEntry(new JarEntry(internalName + ".class"));
+        output.write(classBytes(internalName));
+        output.closeEntry();
+      }
+      for (Map.Entry<String, String> resource : resources.entrySet()) {
+        output.putNextEntry(new JarEntry(resource.getKey()));
+        output.write(resource.getValue().getBytes(StandardCharsets.UTF_8));
+        output.closeEntry();
+      }
+    }
+    return file;
+  }
+
+  /**
+   * Bytecode of "public class [internalName] extends java.lang.Object {}", without constructor.
+   */
+  static byte[] classBytes(String internalName) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(0xCAFEBABE);
+    // Java 8
+    out.writeShort(0);
+    out.writeShort(52);
+    // constant pool
+    out.writeShort(5);
+    out.writeByte(7);
+    out.writeShort(2);
+    out.writeByte(1);
+    out.writeUTF(internalName);
+    out.writeByte(7);
+    out.writeShort(4);
+    out.writeByte(1);
+    out.writeUTF("java/lang/Object");
+    // ACC_PUBLIC | ACC_SUPER
+    out.writeShort(0x0021);
+    // this class and super class
+    out.writeShort(1);
+    out.writeShort(3);
+    // no interfaces, fields, methods nor attributes
+    out.writeShort(0);
+    out.writeShort(0);
+    out.writeShort(0);
+    out.writeShort(0);
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.CheckForNull;
+
+/**
+ * Records the classes defined by the classloaders created by {@link ClassloaderBuilder}, with the JAR files
+ * that provide them, for example during a training run of the application. Register it with
+ * {@link ClassloaderBuilder#setClassListRecorder(ClassListRecorder)}.
+ * <p/>
+ * The recorded classes can be written as a class list of JDK Class Data Sharing, see {@link #write(Writer)}.
+ * The recorder keeps references to the classes, so it should be used only during training runs.
+ * It is thread-safe.
+ *
+ * @since 1.3
+ */
+public final class ClassListRecorder {
+
+  private final List<DefinedClass> definedClasses = new ArrayList<>();
+
+  synchronized void record(String key, Class clazz, URL constituent) {
+    definedClasses.add(new DefinedClass(key, clazz, constituent));
+  }
+
+  /**
+   * Names of the classes defined by the classloader, in order of definition
+   */
+  public synchronized List<String> getClassNames(String key) {
+    List<String> names = new ArrayList<>();
+    for (DefinedClass definedClass : definedClasses) {
+      if (definedClass.key.equals(key)) {
+        names.add(definedClass.clazz.getName());
+      }
+    }
+    return names;
+  }
+
+  /**
+   * Writes the recorded classes in the format of the class list given to {@code -XX:SharedClassListFile} when dumping
+   * a static archive with {@code -Xshare:dump}. Each class defined by a classloader is identified by its superclass,
+   * its interfaces and the JAR file that provides it, for example:
+   * <pre>
+   * java/lang/Object id: 0
+   * org/foo/Bar id: 1 super: 0 source: /path/to/foo.jar
+   * </pre>
+   * Classes are listed in order of definition. Lines starting with # indicate the classloader of the next classes.
+   * <p/>
+   * Classes that are not supported by Class Data Sharing are not listed: classes of directories, and classes
+   * whose superclass or interfaces are neither listed nor provided by the builtin classloaders of the JDK.
+   */
+  public synchronized void write(Writer writer) throws IOException {
+    Map<Class, Integer> ids = new IdentityHashMap<>();
+    String currentKey = null;
+    for (DefinedClass definedClass : definedClasses) {
+      File source = jarFile(definedClass.constituent);
+      Class clazz = definedClass.clazz;
+      if (source == null || !listSupertypes(clazz, ids, writer)) {
+        continue;
+      }
+      if (!definedClass.key.equals(currentKey)) {
+        currentKey = definedClass.key;
+        writer.write("# " + currentKey + "\n");
+      }
+      int id = ids.size();
+      ids.put(clazz, id);
+      StringBuilder line = new StringBuilder();
+      line.append(internalName(clazz)).append(" id: ").append(id);
+      line.append(" super: ").append(ids.get(superclassOf(clazz)));
+      if (clazz.getInterfaces().length > 0) {
+        line.append(" interfaces:");
+        for (Class itf : clazz.getInterfaces()) {
+          line.append(' ').append(ids.get(itf));
+        }
+      }
+      line.append(" source: ").append(source.getAbsolutePath()).append('\n');
+      writer.write(line.toString());
+    }
+    writer.flush();
+  }
+
+  /**
+   * Makes sure that the superclass and the interfaces have identifiers. Returns false if one of them
+   * can not be listed.
+   */
+  private static boolean listSupertypes(Class clazz, Map<Class, Integer> ids, Writer writer) throws IOException {
+    List<Class> supertypes = new ArrayList<>();
+    supertypes.add(superclassOf(clazz));
+    for (Class itf : clazz.getInterfaces()) {
+      supertypes.add(itf);
+    }
+    for (Class supertype : supertypes) {
+      if (!ids.containsKey(supertype)) {
+        if (!isBuiltin(supertype.getClassLoader())) {
+          return false;
+        }
+        int id = ids.size();
+        ids.put(supertype, id);
+        writer.write(internalName(supertype) + " id: " + id + "\n");
+      }
+    }
+    return true;
+  }
+
+  private static Class superclassOf(Class clazz) {
+    // interfaces are declared with java.lang.Object as superclass
+    Class superclass = clazz.getSuperclass();
+    return superclass == null ? Object.class : superclass;
+  }
+
+  private static boolean isBuiltin(@CheckForNull ClassLoader classloader) {
+    return classloader == null || classloader == ClassLoader.getPlatformClassLoader() || classloader == ClassLoader.getSystemClassLoader();
+  }
+
+  private static String internalName(Class clazz) {
+    return clazz.getName().replace('.', '/');
+  }
+
+  @CheckForNull
+  private static File jarFile(URL url) {
+    if (!"file".equals(url.getProtocol())) {
+      return null;
+    }
+    try {
+      File file = new File(url.toURI());
+      return file.isFile() ? file : null;
+    } catch (URISyntaxException | IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  private static class DefinedClass {
+    private final String key;
+    private final Class clazz;
+    private final URL constituent;
+
+    private DefinedClass(String key, Class clazz, URL constituent) {
+      this.key = key;
+      this.clazz = clazz;
+      this.constituent = constituent;
+    }
+  }
+}
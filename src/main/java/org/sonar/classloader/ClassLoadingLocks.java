@@ -0,0 +1,82 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Table of the locks used by a parallel-capable {@link ClassRealm} when loading classes. There is
+ * one lock per class name, as long as it's used. Locks are weakly referenced, so the table does not
+ * grow with the names that were requested once, for example the names of missing classes.
+ */
+class ClassLoadingLocks {
+
+  private final ConcurrentMap<String, LockRef> locks = new ConcurrentHashMap<>();
+  private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+
+  /**
+   * Returns the lock of the given class name. The same instance is returned as long as
+   * it is referenced by a caller.
+   */
+  Object get(String classname) {
+    expungeStaleEntries();
+    Object newLock = null;
+    while (true) {
+      LockRef ref = locks.get(classname);
+      Object lock = ref == null ? null : ref.get();
+      if (lock != null) {
+        return lock;
+      }
+      if (newLock == null) {
+        newLock = new Object();
+      }
+      LockRef newRef = new LockRef(classname, newLock, queue);
+      if (ref == null ? (locks.putIfAbsent(classname, newRef) == null) : locks.replace(classname, ref, newRef)) {
+        return newLock;
+      }
+    }
+  }
+
+  int size() {
+    expungeStaleEntries();
+    return locks.size();
+  }
+
+  private void expungeStaleEntries() {
+    Reference<?> ref;
+    while ((ref = queue.poll()) != null) {
+      LockRef lockRef = (LockRef) ref;
+      locks.remove(lockRef.classname, lockRef);
+    }
+  }
+
+  private static class LockRef extends WeakReference<Object> {
+    private final String classname;
+
+    private LockRef(String classname, Object lock, ReferenceQueue<Object> queue) {
+      super(lock, queue);
+      this.classname = classname;
+    }
+  }
+}
@@ -22,21 +22,56 @@ package org.sonar.classloader;
 import java.io.IOException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.security.CodeSource;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.jar.Manifest;
 import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
 
 class ClassRealm extends URLClassLoader implements StrategyContext {
 
+  static {
+    registerAsParallelCapable();
+  }
+
   private final String key;
+  private final ClassLoadingLocks classLoadingLocks = new ClassLoadingLocks();
   private Mask mask = Mask.ALL;
   private Mask exportMask = Mask.ALL;
   private ClassloaderRef parentRef = NullClassloaderRef.INSTANCE;
   private List<ClassloaderRef> siblingRefs = new ArrayList<>();
   private Strategy strategy;
+  private volatile PackageIndex index = PackageIndex.EMPTY;
+  private volatile boolean closed = false;
+
+  // optional routing table, see ClassloaderBuilder#setPackageRouting(boolean)
+  @Nullable
+  private PackageRoutes routes;
+
+  // optional, see ClassloaderBuilder#setResourceCacheSize(String, int)
+  @Nullable
+  private volatile LruCache<String, CachedResource> resourceCache;
+
+  // optional, see ClassloaderBuilder#setPlatformPackageShortcut(boolean)
+  @Nullable
+  private PlatformPackages platformPackages;
+
+  // optional, see ClassloaderBuilder#setClassListRecorder(ClassListRecorder)
+  @Nullable
+  private ClassListRecorder classListRecorder;
+
+  // optional, see ClassloaderBuilder#setLeakDetector(RealmLeakDetector)
+  @Nullable
+  private RealmLeakDetector.Tracker leakTracker;
+
+  // optional, see ClassloaderBuilder#setLookupListener(String, LookupListener)
+  @Nullable
+  private LookupListener lookupListener;
 
   ClassRealm(String key, ClassLoader baseClassloader) {
     super(new URL[0], baseClassloader);
@@ -52,6 +87,10 @@ class ClassRealm extends URLClassLoader implements StrategyContext {
     return this;
   }
 
+  Mask getMask() {
+    return mask;
+  }
+
   Mask getExportMask() {
     return exportMask;
   }
@@ -66,11 +105,57 @@ class ClassRealm extends URLClassLoader implements StrategyContext {
     return this;
   }
 
+  ClassloaderRef getParentRef() {
+    return parentRef;
+  }
+
   ClassRealm addSibling(ClassloaderRef ref) {
     this.siblingRefs.add(ref);
     return this;
   }
 
+  List<ClassloaderRef> getSiblingRefs() {
+    return siblingRefs;
+  }
+
+  PackageIndex getIndex() {
+    return index;
+  }
+
+  ClassRealm setRoutes(@Nullable PackageRoutes routes) {
+    this.routes = routes;
+    return this;
+  }
+
+  @CheckForNull
+  PackageRoutes getRoutes() {
+    return routes;
+  }
+
+  /**
+   * Classes of the platform packages are then loaded only from the base classloader, which
+   * is not probed for the other classes
+   */
+  ClassRealm setPlatformPackages(@Nullable PlatformPackages platformPackages) {
+    this.platformPackages = platformPackages;
+    return this;
+  }
+
+  ClassRealm setClassListRecorder(@Nullable ClassListRecorder classListRecorder) {
+    this.classListRecorder = classListRecorder;
+    return this;
+  }
+
+  ClassRealm setLeakTracker(@Nullable RealmLeakDetector.Tracker leakTracker) {
+    this.leakTracker = leakTracker;
+    return this;
+  }
+
+  ClassRealm setLookupListener(@Nullable LookupListener lookupListener) {
+    this.lookupListener = lookupListener;
+    return this;
+  }
+
   ClassRealm setStrategy(Strategy strategy) {
     this.strategy = strategy;
     return this;
@@ -81,6 +166,41 @@ class ClassRealm extends URLClassLoader implements StrategyContext {
     return this;
   }
 
+  /**
+   * Caches up to {@code maxSize} results of {@link #getResource(String)}, including the
+   * resources that are not found. Zero disables the cache.
+   */
+  ClassRealm setResourceCacheSize(int maxSize) {
+    this.resourceCache = maxSize > 0 ? new LruCache<String, CachedResource>(maxSize) : null;
+    return this;
+  }
+
+  /**
+   * Forgets the resources cached by this realm and the lookups cached by the references
+   * to parent and siblings
+   */
+  void invalidateCaches() {
+    LruCache<String, CachedResource> cache = resourceCache;
+    if (cache != null) {
+      cache.clear();
+    }
+    parentRef.invalidateCaches();
+    for (ClassloaderRef siblingRef : siblingRefs) {
+      siblingRef.invalidateCaches();
+    }
+  }
+
+  /**
+   * Indexes the directories of the opened constituents. Must be called once all
+   * the constituents are added.
+   *
+   * @param constituents the opened constituents, in the order of {@link #getURLs()}
+   */
+  ClassRealm index(List<Constituent> constituents) {
+    this.index = new PackageIndex(constituents);
+    return this;
+  }
+
   @Override
   public Class loadClass(String name) throws ClassNotFoundException {
     return loadClass(name, false);
@@ -88,18 +208,103 @@ class ClassRealm extends URLClassLoader implements StrategyContext {
 
   @Override
   protected Class loadClass(String name, boolean resolve) throws ClassNotFoundException {
+    failIfClosed();
+    if (!mask.acceptClass(name)) {
+      throw new ClassNotFoundException(String.format("Class %s is not accepted in classloader %s", name, this));
+    }
+    Class clazz = isTraced() ? loadClassAndTrace(name, null) : lookupClass(name, null, null);
+    if (clazz == null) {
+      // misses are returned as null between realms, so that a lookup throws a single exception
+      throw new ClassNotFoundException(name);
+    }
+    if (resolve) {
+      resolveClass(clazz);
+    }
+    return clazz;
+  }
+
+  /**
+   * Loads a class on behalf of a realm that has this realm as parent or sibling
+   *
+   * @param visited the realms already visited by the lookup, including this one
+   * @return the class, or null if not found
+   */
+  @CheckForNull
+  Class loadClassIfPresent(String name, VisitedRealms visited) {
+    failIfClosed();
     if (mask.acceptClass(name)) {
+      return isTraced() ? loadClassAndTrace(name, visited) : lookupClass(name, visited, null);
+    }
+    return null;
+  }
+
+  /**
+   * @param visited the realms already visited by the lookup, or null if the lookup starts with this realm
+   * @param tracer the tracer of the lookup, or null if not traced
+   */
+  @CheckForNull
+  private Class lookupClass(String name, @Nullable VisitedRealms visited, @Nullable LookupTracer tracer) {
+    PlatformPackages platform = platformPackages;
+    boolean platformClass = platform != null && platform.containsClass(name);
+
+    Class clazz = findLoadedClass(name);
+    if (clazz != null) {
+      if (tracer != null) {
+        tracer.foundLoaded(clazz);
+      }
+      return clazz;
+    }
+    // first, try loading bootstrap classes
+    if (platform == null || platformClass) {
+      clazz = loadClassFromBase(name, visited);
+      if (clazz != null) {
+        if (tracer != null) {
+          tracer.foundInBase();
+        }
+        return clazz;
+      }
+    }
+    if (platformClass) {
+      // not provided by siblings, parent or self
+      return null;
+    }
+    // next, try loading via siblings, self and parent as controlled by strategy
+    StrategyContext context = tracer == null ? classContext(name) : tracer;
+    return strategy.loadClass(context, name, visited == null ? VisitedRealms.startingAt(this) : visited);
+  }
+
+  @CheckForNull
+  private Class loadClassAndTrace(String name, @Nullable VisitedRealms visited) {
+    LookupTracer tracer = tracer(routes == null ? null : routes.forClass(name));
+    try {
+      return lookupClass(name, visited, tracer);
+    } finally {
+      tracer.end(LookupEvent.Type.CLASS, name);
+    }
+  }
+
+  /**
+   * Replaces {@link ClassLoader#loadClass(String, boolean)}, which throws an exception when the class
+   * is missing in the base classloader then in {@link #findClass(String)}. The base classloader is
+   * probed once per lookup, even if it is shared by all the realms visited.
+   */
+  @CheckForNull
+  private Class loadClassFromBase(String name, @Nullable VisitedRealms visited) {
+    ClassLoader base = getParent();
+    if (visited == null || visited.probeBase(base)) {
       try {
-        // first, try loading bootstrap classes
-        return super.loadClass(name, resolve);
+        return base == null ? Class.forName(name, false, null) : base.loadClass(name);
       } catch (ClassNotFoundException ignored) {
-        // next, try loading via siblings, self and parent as controlled by strategy
-        return strategy.loadClass(this, name);
+        // the base classloader is not a realm and can only signal misses with an exception
       }
     }
-    throw new ClassNotFoundException(String.format("Class %s is not accepted in classloader %s", name, this));
+    return null;
   }
 
+  @Override
+  protected Object getClassLoadingLock(String className) {
+    return classLoadingLocks.get(className);
+  }
 
   @Override
   protected Class<?> findClass(String name) throws ClassNotFoundException {
@@ -110,41 +315,203 @@ class ClassRealm extends URLClassLoader implements StrategyContext {
   @CheckForNull
   @Override
   public URL getResource(String name) {
+    failIfClosed();
     if (mask.acceptResource(name)) {
-      return strategy.getResource(this, name);
+      LruCache<String, CachedResource> cache = resourceCache;
+      if (cache == null) {
+        return lookupResource(name, VisitedRealms.startingAt(this));
+      }
+      CachedResource cached = cache.get(name);
+      if (cached == null) {
+        URL url = lookupResource(name, VisitedRealms.startingAt(this));
+        cached = url == null ? CachedResource.MISSING : new CachedResource(url);
+        cache.put(name, cached);
+      }
+      return cached.url;
     }
     return null;
   }
 
+  /**
+   * Searches for a resource on behalf of a realm that has this realm as parent or sibling.
+   * The cache of resources is not used, as the result depends on the realms already visited.
+   *
+   * @param visited the realms already visited by the lookup, including this one
+   */
+  @CheckForNull
+  URL getResource(String name, VisitedRealms visited) {
+    failIfClosed();
+    return mask.acceptResource(name) ? lookupResource(name, visited) : null;
+  }
+
+  @CheckForNull
+  private URL lookupResource(String name, VisitedRealms visited) {
+    if (isTraced()) {
+      return getResourceAndTrace(name, visited);
+    }
+    return strategy.getResource(resourceContext(name), name, visited);
+  }
+
+  @CheckForNull
+  private URL getResourceAndTrace(String name, VisitedRealms visited) {
+    LookupTracer tracer = tracer(routes == null ? null : routes.forResource(name));
+    try {
+      return strategy.getResource(tracer, name, visited);
+    } finally {
+      tracer.end(LookupEvent.Type.RESOURCE, name);
+    }
+  }
+
   @Override
   public Enumeration<URL> getResources(String name) throws IOException {
-    // Important note: do not use java.util.Set as equals and hashCode methods of
-    // java.net.URL perform domain name resolution. This can result in a big performance hit.
-    List<URL> resources = new ArrayList<>();
+    return getResources(name, VisitedRealms.startingAt(this));
+  }
+
+  /**
+   * Searches for resources on behalf of a realm that has this realm as parent or sibling
+   *
+   * @param visited the realms already visited by the lookup, including this one
+   */
+  Enumeration<URL> getResources(String name, VisitedRealms visited) {
+    failIfClosed();
     if (mask.acceptResource(name)) {
-      strategy.getResources(this, name, resources);
+      if (isTraced()) {
+        return getResourcesAndTrace(name, visited);
+      }
+      // siblings, parent and self are looked up when the enumeration is consumed
+      return strategy.getResources(resourceContext(name), name, visited);
     }
-    return Collections.enumeration(resources);
+    return Collections.emptyEnumeration();
+  }
+
+  /**
+   * The resources are still looked up lazily. The traced lookup completes when the enumeration is exhausted.
+   */
+  private Enumeration<URL> getResourcesAndTrace(String name, VisitedRealms visited) {
+    LookupTracer tracer = tracer(routes == null ? null : routes.forResource(name));
+    return tracer.endWhenConsumed(strategy.getResources(tracer, name, visited), name);
   }
 
+  private void failIfClosed() {
+    if (closed) {
+      throw new IllegalStateException(String.format("Classloader %s is closed", this));
+    }
+  }
+
+  boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Lookups are traced when a listener is registered or when a JFR recording is running
+   */
+  private boolean isTraced() {
+    return lookupListener != null || LookupRecording.isRecording();
+  }
+
+  private LookupTracer tracer(@Nullable PackageRoutes.Route route) {
+    if (route != null) {
+      return new LookupTracer(this, lookupListener, route.getSiblings(), route.hasParent(), route.hasSelf());
+    }
+    return new LookupTracer(this, lookupListener, siblingRefs, parentRef != NullClassloaderRef.INSTANCE, true);
+  }
+
+  private StrategyContext classContext(String classname) {
+    StrategyContext route = routes == null ? null : routes.forClass(classname);
+    return route == null ? this : route;
+  }
+
+  private StrategyContext resourceContext(String name) {
+    StrategyContext route = routes == null ? null : routes.forResource(name);
+    return route == null ? this : route;
+  }
+
+  @CheckForNull
   @Override
-  public Class loadClassFromSelf(String name) {
-    Class clazz = findLoadedClass(name);
-    if (clazz == null) {
-      try {
-        return super.findClass(name);
-      } catch (ClassNotFoundException ignored) {
+  public URL findResource(String name) {
+    try {
+      for (Constituent constituent : index.lookup(name)) {
+        Constituent.Entry entry = constituent.findEntry(name);
+        if (entry != null) {
+          return entry.getURL();
+        }
+      }
+      return null;
+    } catch (IOException e) {
+      throw new IllegalStateException(String.format("Fail to load resource named '%s' from classloader %s", name, toString()), e);
+    }
+  }
+
+  @Override
+  public Enumeration<URL> findResources(String name) {
+    return new LazyEnumeration<>(Arrays.asList(index.lookup(name)).iterator(), constituent -> findEntryURL(constituent, name));
+  }
+
+  @Override
+  public Class loadClassFromSelf(String name, VisitedRealms visited) {
+    synchronized (getClassLoadingLock(name)) {
+      Class clazz = findLoadedClass(name);
+      if (clazz == null) {
         // return null when class is not found, so that loading strategy
         // can try parent or sibling classloaders.
+        clazz = defineClassFromSelf(name);
+      }
+      return clazz;
+    }
+  }
+
+  @CheckForNull
+  private Class defineClassFromSelf(String name) {
+    String resourceName = name.replace('.', '/').concat(".class");
+    try {
+      for (Constituent constituent : index.lookup(resourceName)) {
+        Constituent.Entry entry = constituent.findEntry(resourceName);
+        if (entry != null) {
+          return defineClass(name, constituent, entry);
+        }
       }
+      return null;
+    } catch (IOException e) {
+      throw new IllegalStateException(String.format("Fail to load class %s from classloader %s", name, toString()), e);
+    }
+  }
+
+  private Class defineClass(String name, Constituent constituent, Constituent.Entry entry) throws IOException {
+    ByteBuffer bytes = entry.getBytes();
+    definePackageIfNeeded(name, constituent.getURL(), entry.getManifest());
+    Class clazz = defineClass(name, bytes, new CodeSource(constituent.getURL(), entry.getCodeSigners()));
+    if (classListRecorder != null) {
+      classListRecorder.record(key, clazz, constituent.getURL());
+    }
+    if (leakTracker != null) {
+      leakTracker.defined(name);
     }
     return clazz;
   }
 
+  private void definePackageIfNeeded(String classname, URL url, @CheckForNull Manifest manifest) {
+    int lastDot = classname.lastIndexOf('.');
+    if (lastDot < 0) {
+      return;
+    }
+    String packageName = classname.substring(0, lastDot);
+    if (getDefinedPackage(packageName) == null) {
+      try {
+        if (manifest == null) {
+          definePackage(packageName, null, null, null, null, null, null, null);
+        } else {
+          definePackage(packageName, manifest, url);
+        }
+      } catch (IllegalArgumentException ignored) {
+        // package has been defined concurrently
+      }
+    }
+  }
+
   @Override
-  public Class loadClassFromSiblings(String name) {
+  public Class loadClassFromSiblings(String name, VisitedRealms visited) {
     for (ClassloaderRef siblingRef : siblingRefs) {
-      Class clazz = siblingRef.loadClassIfPresent(name);
+      Class clazz = siblingRef.loadClassIfPresent(name, visited);
       if (clazz != null) {
         return clazz;
       }
@@ -153,19 +520,19 @@ class ClassRealm extends URLClassLoader implements StrategyContext {
   }
 
   @Override
-  public Class loadClassFromParent(String name) {
-    return parentRef.loadClassIfPresent(name);
+  public Class loadClassFromParent(String name, VisitedRealms visited) {
+    return parentRef.loadClassIfPresent(name, visited);
   }
 
   @Override
-  public URL loadResourceFromSelf(String name) {
-    return super.findResource(name);
+  public URL loadResourceFromSelf(String name, VisitedRealms visited) {
+    return findResource(name);
   }
 
   @Override
-  public URL loadResourceFromSiblings(String name) {
+  public URL loadResourceFromSiblings(String name, VisitedRealms visited) {
     for (ClassloaderRef siblingRef : siblingRefs) {
-      URL url = siblingRef.loadResourceIfPresent(name);
+      URL url = siblingRef.loadResourceIfPresent(name, visited);
       if (url != null) {
         return url;
       }
@@ -174,33 +541,65 @@ class ClassRealm extends URLClassLoader implements StrategyContext {
   }
 
   @Override
-  public URL loadResourceFromParent(String name) {
-    return parentRef.loadResourceIfPresent(name);
+  public URL loadResourceFromParent(String name, VisitedRealms visited) {
+    return parentRef.loadResourceIfPresent(name, visited);
   }
 
   @Override
-  public void loadResourcesFromSelf(String name, Collection<URL> appendTo) {
+  public Enumeration<URL> loadResourcesFromSelf(String name, VisitedRealms visited) {
+    return findResources(name);
+  }
+
+  private Enumeration<URL> findEntryURL(Constituent constituent, String name) {
     try {
-      appendTo.addAll(Collections.list(super.findResources(name)));
+      Constituent.Entry entry = constituent.findEntry(name);
+      return entry == null ? Collections.<URL>emptyEnumeration() : Collections.enumeration(Collections.singletonList(entry.getURL()));
     } catch (IOException e) {
       throw new IllegalStateException(String.format("Fail to load resources named '%s' from classloader %s", name, toString()), e);
     }
   }
 
   @Override
-  public void loadResourcesFromSiblings(String name, Collection<URL> appendTo) {
-    for (ClassloaderRef siblingRef : siblingRefs) {
-      siblingRef.loadResources(name, appendTo);
-    }
+  public Enumeration<URL> loadResourcesFromSiblings(String name, VisitedRealms visited) {
+    return new LazyEnumeration<>(siblingRefs.iterator(), siblingRef -> siblingRef.loadResources(name, visited));
   }
 
   @Override
-  public void loadResourcesFromParent(String name, Collection<URL> appendTo) {
-    parentRef.loadResources(name, appendTo);
+  public Enumeration<URL> loadResourcesFromParent(String name, VisitedRealms visited) {
+    return parentRef.loadResources(name, visited);
+  }
+
+  /**
+   * Releases the constituents. Next lookups of classes and resources fail.
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    if (leakTracker != null) {
+      leakTracker.closed();
+    }
+    for (Constituent constituent : index.getConstituents()) {
+      Constituent.closeQuietly(constituent);
+    }
+    super.close();
   }
 
   @Override
   public String toString() {
     return String.format("ClassRealm{%s}", key);
   }
+
+  /**
+   * Result of {@link #getResource(String)}. Resources that are not found are cached as {@link #MISSING}.
+   */
+  private static final class CachedResource {
+    private static final CachedResource MISSING = new CachedResource(null);
+
+    @Nullable
+    private final URL url;
+
+    private CachedResource(@Nullable URL url) {
+      this.url = url;
+    }
+  }
 }
@@ -0,0 +1,99 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * JDK Flight Recorder event of a lookup of class or resources by a {@link ClassRealm}. Disabled by default,
+ * so that recordings that are always on, with the default settings, do not trace every lookup. When enabled,
+ * only the lookups longer than 1 ms are recorded. The threshold can be changed in the settings of recordings.
+ * Must be referenced only through {@link LookupRecording}, which checks that the module jdk.jfr is present.
+ */
+@Name(ClassRealmLookupEvent.NAME)
+@Label("Classloader Lookup")
+@Category({"Java Application", "Sonar Classloader"})
+@Description("Lookup of a class or of resources by a classloader created by ClassloaderBuilder")
+@Enabled(false)
+@Threshold("1 ms")
+class ClassRealmLookupEvent extends jdk.jfr.Event implements LookupRecording {
+
+  static final String NAME = "org.sonar.classloader.Lookup";
+
+  private static final EventType TYPE = EventType.getEventType(ClassRealmLookupEvent.class);
+
+  @Label("Classloader")
+  @Description("Key of the classloader")
+  String realm;
+
+  @Label("Type")
+  @Description("CLASS, RESOURCE or RESOURCES")
+  String type;
+
+  @Label("Name")
+  @Description("Name of class or resource")
+  String name;
+
+  @Label("Source")
+  @Description("BASE, SIBLING, PARENT, SELF, ALREADY_LOADED or NOT_FOUND")
+  String source;
+
+  @Label("Sibling Index")
+  @Description("Index of the sibling that provided the class or resource, -1 if not provided by a sibling")
+  int siblingIndex;
+
+  @Label("Probed References")
+  @Description("Number of siblings and parent called during the lookup")
+  int probedRefs;
+
+  /**
+   * Whether a recording is running with this event enabled. This check is cheaper than
+   * allocating an event, so that lookups are not traced when no recording needs them.
+   */
+  static boolean isRecording() {
+    return TYPE.isEnabled();
+  }
+
+  static LookupRecording beginLookup() {
+    ClassRealmLookupEvent event = new ClassRealmLookupEvent();
+    event.begin();
+    return event;
+  }
+
+  @Override
+  public void end(String realm, LookupEvent.Type type, String name, LookupEvent.Source source, int siblingIndex, int probedRefs) {
+    end();
+    if (shouldCommit()) {
+      this.realm = realm;
+      this.type = type.name();
+      this.name = name;
+      this.source = source.name();
+      this.siblingIndex = siblingIndex;
+      this.probedRefs = probedRefs;
+      commit();
+    }
+  }
+}
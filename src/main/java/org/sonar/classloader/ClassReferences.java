@@ -0,0 +1,131 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Names of the classes referenced by the constant pool of a class file: the classes, fields, methods and method
+ * types that may be resolved when the class is linked. Annotations and generic signatures are not read, as they are
+ * resolved only by reflection.
+ */
+class ClassReferences {
+
+  private static final int MAGIC = 0xCAFEBABE;
+
+  private ClassReferences() {
+    // only static methods
+  }
+
+  /**
+   * @return internal names of the referenced classes, for example "org/foo/Bar", including the class itself
+   */
+  static Set<String> of(byte[] classFile) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not a class file");
+    }
+    // minor and major versions
+    in.readInt();
+    int count = in.readUnsignedShort();
+    String[] utf8 = new String[count];
+    int[] classNames = new int[count];
+    int[] descriptors = new int[count];
+    for (int i = 1; i < count; i++) {
+      int tag = in.readUnsignedByte();
+      switch (tag) {
+        case 1:
+          utf8[i] = in.readUTF();
+          break;
+        case 7:
+          classNames[i] = in.readUnsignedShort();
+          break;
+        case 12:
+          // NameAndType: name then descriptor
+          in.readUnsignedShort();
+          descriptors[i] = in.readUnsignedShort();
+          break;
+        case 16:
+          // MethodType
+          descriptors[i] = in.readUnsignedShort();
+          break;
+        case 8:
+        case 19:
+        case 20:
+          in.readUnsignedShort();
+          break;
+        case 15:
+          in.readUnsignedByte();
+          in.readUnsignedShort();
+          break;
+        case 3:
+        case 4:
+        case 9:
+        case 10:
+        case 11:
+        case 17:
+        case 18:
+          in.readInt();
+          break;
+        case 5:
+        case 6:
+          in.readLong();
+          // takes two entries
+          i++;
+          break;
+        default:
+          throw new IOException("Unsupported tag of constant pool: " + tag);
+      }
+    }
+    Set<String> names = new HashSet<>();
+    for (int i = 1; i < count; i++) {
+      if (classNames[i] > 0) {
+        String name = utf8[classNames[i]];
+        if (name.startsWith("[")) {
+          addDescriptorTypes(name, names);
+        } else {
+          names.add(name);
+        }
+      } else if (descriptors[i] > 0) {
+        addDescriptorTypes(utf8[descriptors[i]], names);
+      }
+    }
+    return names;
+  }
+
+  /**
+   * Adds the classes of a field or method descriptor, for example "org/foo/Bar" for "([Lorg/foo/Bar;I)V"
+   */
+  private static void addDescriptorTypes(String descriptor, Set<String> names) {
+    int start = descriptor.indexOf('L');
+    while (start >= 0) {
+      int end = descriptor.indexOf(';', start);
+      if (end < 0) {
+        return;
+      }
+      names.add(descriptor.substring(start + 1, end));
+      start = descriptor.indexOf('L', end);
+    }
+  }
+}
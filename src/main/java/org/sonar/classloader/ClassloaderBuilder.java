@@ -19,14 +19,27 @@
  */
 package org.sonar.classloader;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import javax.annotation.Nullable;
 
 import static java.util.Collections.emptyList;
 
@@ -89,12 +102,40 @@ public class ClassloaderBuilder {
     private final List<String> siblingKeys = new ArrayList<>();
     private final Map<String, Mask> associatedMasks = new HashMap<>();
 
+    // references to parent and siblings, including the classloaders created outside the builder
+    private final List<DefaultClassloaderRef> refs = new ArrayList<>();
+    private int negativeLookupCacheSize = 0;
+
+    // constituents held in memory, by identity of their locations in realm
+    private final Map<URL, Callable<Constituent>> inMemory = new IdentityHashMap<>();
+
     private NewRealm(ClassRealm realm) {
       this.realm = realm;
     }
+
+    private DefaultClassloaderRef newRef(ClassLoader classloader, Mask mask) {
+      DefaultClassloaderRef ref = new DefaultClassloaderRef(classloader, mask);
+      refs.add(ref);
+      return ref;
+    }
   }
 
   private final Map<String, NewRealm> newRealmsByKey = new HashMap<>();
+  private static final Executor CALLER_THREAD = Runnable::run;
+
+  private boolean packageRouting = false;
+  private boolean memoryMapping = false;
+  private boolean platformPackageShortcut = false;
+  @Nullable
+  private File indexCacheFile = null;
+  @Nullable
+  private ClassListRecorder classListRecorder = null;
+  @Nullable
+  private RealmLeakDetector leakDetector = null;
+  private boolean releaseJarUrlCaches = false;
+  @Nullable
+  private JarPool jarPool = null;
+  private boolean constituentHoisting = false;
 
   /**
    * Declares a new classloader based on system classloader.
@@ -137,7 +178,7 @@ public class ClassloaderBuilder {
 
   public ClassloaderBuilder setParent(String key, ClassLoader parent, Mask mask) {
     NewRealm newRealm = getOrFail(key);
-    newRealm.realm.setParent(new DefaultClassloaderRef(parent, mask));
+    newRealm.realm.setParent(newRealm.newRef(parent, mask));
     return this;
   }
 
@@ -150,15 +191,66 @@ public class ClassloaderBuilder {
 
   public ClassloaderBuilder addSibling(String key, ClassLoader sibling, Mask mask) {
     NewRealm newRealm = getOrFail(key);
-    newRealm.realm.addSibling(new DefaultClassloaderRef(sibling, mask));
+    newRealm.realm.addSibling(newRealm.newRef(sibling, mask));
     return this;
   }
 
+  /**
+   * Adds a JAR file or a directory to the classloader. A JAR file nested in a JAR file of the local filesystem, for
+   * example {@code jar:file:/path/to/plugin.jar!/META-INF/lib/foo.jar}, is read from the outer file without being
+   * extracted.
+   */
   public ClassloaderBuilder addURL(String key, URL url) {
     getOrFail(key).realm.addConstituent(url);
     return this;
   }
 
+  /**
+   * Adds classes and resources held in memory, for example generated at runtime or read from a cache. Keys of the map
+   * are names of resources, like "org/foo/Bar.class". The buffers, including direct buffers, are not copied: classes
+   * are defined from the bytes between their position and their limit, which must not change once the
+   * classloader is built. Like JAR files and directories, these resources are subject to masks and to the loading
+   * order. Their location in {@link java.net.URLClassLoader#getURLs()} is a URL of protocol "memory".
+   *
+   * @since 1.3
+   */
+  public ClassloaderBuilder addResources(String key, Map<String, ByteBuffer> resources) {
+    NewRealm newRealm = getOrFail(key);
+    Map<String, ByteBuffer> copy = new HashMap<>();
+    for (Map.Entry<String, ByteBuffer> resource : resources.entrySet()) {
+      copy.put(resource.getKey(), resource.getValue().duplicate());
+    }
+    URL location = newMemoryLocation(newRealm, "/", null);
+    newRealm.inMemory.put(location, () -> new MemoryConstituent(location, copy));
+    newRealm.realm.addConstituent(location);
+    return this;
+  }
+
+  /**
+   * Adds a JAR file held in memory, between the position and the limit of the buffer. Stored entries are read without
+   * copies. Signatures are not verified. The buffer must not change once the classloader is built.
+   *
+   * @since 1.3
+   * @see #addResources(String, Map)
+   */
+  public ClassloaderBuilder addJar(String key, ByteBuffer jar) {
+    NewRealm newRealm = getOrFail(key);
+    ByteBuffer bytes = jar.duplicate();
+    URL location = newMemoryLocation(newRealm, ".jar", bytes);
+    newRealm.inMemory.put(location, () -> MappedJarConstituent.read(location, bytes));
+    newRealm.realm.addConstituent(location);
+    return this;
+  }
+
+  private static URL newMemoryLocation(NewRealm newRealm, String suffix, @Nullable ByteBuffer jar) {
+    String spec = "memory:/" + Constituent.encodePath(newRealm.realm.getKey()) + "/" + newRealm.realm.getURLs().length + suffix;
+    try {
+      return jar == null ? MemoryConstituent.newLocation(spec) : MemoryConstituent.newJarLocation(spec, jar);
+    } catch (MalformedURLException e) {
+      throw new IllegalStateException(String.format("Fail to create location %s", spec), e);
+    }
+  }
+
   public ClassloaderBuilder setMask(String key, Mask mask) {
     getOrFail(key).realm.setMask(mask);
     return this;
@@ -174,13 +266,241 @@ public class ClassloaderBuilder {
     return this;
   }
 
+  /**
+   * When enabled, {@link #build()} computes for each new classloader which siblings, parent and self may provide
+   * the classes and resources of each package, according to their content and to masks. Lookups of these packages
+   * then call only these classloaders instead of probing all the relations. Lookups of unknown packages still
+   * traverse all the relations. Default is false.
+   * <p/>
+   * Routing assumes that the content of constituents does not change once classloaders are built.
+   *
+   * @since 1.3
+   */
+  public ClassloaderBuilder setPackageRouting(boolean enabled) {
+    this.packageRouting = enabled;
+    return this;
+  }
+
+  /**
+   * When enabled, the JAR files located on the local filesystem are mapped in memory instead of being opened
+   * with {@link java.util.jar.JarFile}. Their central directory is parsed once and uncompressed entries are
+   * read without copies. Signed JAR files and ZIP64 archives are still opened with {@link java.util.jar.JarFile}.
+   * Default is false.
+   * <p/>
+   * JAR files must not be modified while mapped. Mappings are not released when classloaders are closed, see
+   * {@link ClassloaderGraph#close()}, but when the classloaders and the resources they returned are garbage collected,
+   * because reading a released mapping would crash the JVM. On Windows, mapped JAR files can't be deleted or replaced
+   * until then.
+   *
+   * @since 1.3
+   */
+  public ClassloaderBuilder setMemoryMapping(boolean enabled) {
+    this.memoryMapping = enabled;
+    return this;
+  }
+
+  /**
+   * When enabled, {@link #build()} computes once the packages of the platform modules (java.base, java.sql, jdk.*, ...)
+   * that are visible from the base classloaders. Classes of these packages are then loaded only from the base
+   * classloader, without probing siblings, parent and self. The base classloader is not probed for the classes of
+   * the other packages, which are loaded only from siblings, parent and self. Default is false.
+   * <p/>
+   * Classes that the base classloaders load from outside the modules of the boot layer, for example from
+   * the classpath of the application, are not visible when enabled.
+   *
+   * @since 1.3
+   */
+  public ClassloaderBuilder setPlatformPackageShortcut(boolean enabled) {
+    this.platformPackageShortcut = enabled;
+    return this;
+  }
+
+  /**
+   * Persists the directories of the JAR files to the given file, so that next builds, for example after a restart
+   * of the application, do not list again the entries of the JAR files that did not change. These JAR files are
+   * then opened only when a class or resource of their directories is requested. A JAR file is considered as
+   * unchanged when its size, last modification time, file key and central directory are the same. The file is
+   * written by {@link #build()}, and again by {@link ClassloaderGraph#close()} if JAR files changed after the build.
+   * It is rebuilt when it is invalid. Default is null, which disables the persistence.
+   *
+   * @since 1.3
+   */
+  public ClassloaderBuilder setIndexCache(@Nullable File file) {
+    this.indexCacheFile = file;
+    return this;
+  }
+
+  /**
+   * Records the classes defined by the new classloaders, for example to create an archive of JDK Class Data Sharing
+   * from a training run. Default is null.
+   *
+   * @since 1.3
+   */
+  public ClassloaderBuilder setClassListRecorder(@Nullable ClassListRecorder recorder) {
+    this.classListRecorder = recorder;
+    return this;
+  }
+
+  /**
+   * When enabled, a JAR file declared by several classloaders, for example a library bundled by several plugins,
+   * is opened and indexed only once. It is closed when the last of these classloaders is closed. JAR files declared
+   * by different URLs, for example through symbolic links, are not shared. The classloaders replaced by
+   * {@link ClassloaderGraph#rebuild(String, java.util.function.Consumer)} share the JAR files with the reused ones.
+   * Default is false.
+   *
+   * @since 1.3
+   */
+  public ClassloaderBuilder setJarSharing(boolean enabled) {
+    if (!enabled) {
+      this.jarPool = null;
+    } else if (jarPool == null) {
+      this.jarPool = new JarPool();
+    }
+    return this;
+  }
+
+  /**
+   * When enabled, a JAR file that is declared with the same content by several new classloaders is moved to a new
+   * classloader, which these classloaders import as sibling. Its classes are then defined once instead of once per
+   * classloader. The new classloader is part of the result of the build, its key is the name of the JAR file
+   * followed by its hash, for example "commons-lang-2.6.jar@0f3a9c1e".
+   * <p/>
+   * A JAR file is moved only when its classes are resolved the same way from the new classloader: the classloaders
+   * must have the same base classloader and masks that accept all its resources, its packages must not be provided by
+   * other JAR files or directories visible from these classloaders, and its classes must reference only the classes
+   * of the JAR file and of the base classloader. Classes loaded by reflection are not checked. What is moved, and why
+   * the other JAR files are not, is reported by {@link ClassloaderGraph#getHoistingReport()}. Default is false.
+   *
+   * @since 1.3
+   */
+  public ClassloaderBuilder setConstituentHoisting(boolean enabled) {
+    this.constituentHoisting = enabled;
+    return this;
+  }
+
+  /**
+   * Tracks the new classloaders in order to report those that are still reachable after being closed.
+   * Default is null.
+   *
+   * @since 1.3
+   */
+  public ClassloaderBuilder setLeakDetector(@Nullable RealmLeakDetector detector) {
+    this.leakDetector = detector;
+    return this;
+  }
+
+  /**
+   * When enabled, {@link ClassloaderGraph#close()} also closes the JAR files that {@link java.net.JarURLConnection}
+   * caches when the URLs of resources, like "jar:file:/path/to/file.jar!/org/foo/config.xml", are opened.
+   * Other users of these cached JAR files may then fail to read them. Default is false.
+   *
+   * @since 1.3
+   */
+  public ClassloaderBuilder setReleaseJarUrlCaches(boolean enabled) {
+    this.releaseJarUrlCaches = enabled;
+    return this;
+  }
+
+  /**
+   * Remembers, for each parent and sibling of the classloader, up to {@code maxSize} names of the classes
+   * that they do not contain. Next lookups of these names are answered without calling the parent or
+   * sibling classloaders. Names that have not been used recently are evicted first. Default size is zero, which
+   * disables the cache.
+   * <p/>
+   * The cache must be enabled only when the classes provided by parent and siblings do not change,
+   * or it must be cleared with {@link #invalidateCaches(ClassLoader)} when they change.
+   *
+   * @since 1.3
+   */
+  public ClassloaderBuilder setNegativeLookupCacheSize(String key, int maxSize) {
+    if (maxSize < 0) {
+      throw new IllegalArgumentException(String.format("Size of negative lookup cache must not be negative: %d", maxSize));
+    }
+    getOrFail(key).negativeLookupCacheSize = maxSize;
+    return this;
+  }
+
+  /**
+   * Registers a listener that is notified of each lookup of class or resources by the classloader, with the
+   * source that provided it and the duration. By default there is no listener, and lookups are not measured.
+   *
+   * @param listener the listener, or null to remove it
+   * @since 1.3
+   */
+  public ClassloaderBuilder setLookupListener(String key, @Nullable LookupListener listener) {
+    getOrFail(key).realm.setLookupListener(listener);
+    return this;
+  }
+
+  /**
+   * Remembers up to {@code maxSize} results of {@link ClassLoader#getResource(String)} of the classloader, including
+   * the names of the resources that are not found. Next calls with the same names are answered without looking up
+   * siblings, parent and self. Names that have not been used recently are evicted first. Default size is zero, which
+   * disables the cache. Cached answers are not notified to {@link LookupListener}.
+   * <p/>
+   * The cache must be enabled only when the resources provided by the classloader, its parent and siblings
+   * do not change, or it must be cleared with {@link #invalidateCaches(ClassLoader)} when they change.
+   *
+   * @since 1.3
+   */
+  public ClassloaderBuilder setResourceCacheSize(String key, int maxSize) {
+    if (maxSize < 0) {
+      throw new IllegalArgumentException(String.format("Size of resource cache must not be negative: %d", maxSize));
+    }
+    getOrFail(key).realm.setResourceCacheSize(maxSize);
+    return this;
+  }
+
+  /**
+   * Clears the lookups cached by a classloader created by a {@link ClassloaderBuilder}.
+   *
+   * @since 1.3
+   * @see #setNegativeLookupCacheSize(String, int)
+   * @see #setResourceCacheSize(String, int)
+   */
+  public static void invalidateCaches(ClassLoader classloader) {
+    if (!(classloader instanceof ClassRealm)) {
+      throw new IllegalArgumentException("classloader not of type ClassRealm: " + classloader);
+    }
+    ((ClassRealm) classloader).invalidateCaches();
+  }
+
   /**
    * Returns the new classloaders, grouped by keys. The parent and sibling classloaders
    * that are already existed (see {@link #setParent(String, ClassLoader, Mask)}
    * and {@link #addSibling(String, ClassLoader, Mask)} are not included into result.
    */
   public Map<String, ClassLoader> build() {
-    Map<String, ClassLoader> result = new HashMap<>();
+    return build(CALLER_THREAD);
+  }
+
+  /**
+   * Same as {@link #build()} but the constituents of all the new classloaders (JAR files, directories, ...)
+   * are opened and indexed by the given executor, for example a thread pool. The method returns once
+   * all the constituents are opened. The executor is not shut down.
+   *
+   * @since 1.3
+   */
+  public Map<String, ClassLoader> build(Executor executor) {
+    return new HashMap<>(buildGraph(executor).getClassloaders());
+  }
+
+  /**
+   * Same as {@link #build()} but returns a graph that can close all the new classloaders at once.
+   *
+   * @since 1.3
+   */
+  public ClassloaderGraph buildGraph() {
+    return buildGraph(CALLER_THREAD);
+  }
+
+  /**
+   * Same as {@link #build(Executor)} but returns a graph that can close all the new classloaders at once.
+   *
+   * @since 1.3
+   */
+  public ClassloaderGraph buildGraph(Executor executor) {
+    Map<String, ClassRealm> result = new HashMap<>();
 
     // all the classloaders are created. Associations can now be resolved.
     for (Map.Entry<String, NewRealm> entry : newRealmsByKey.entrySet()) {
@@ -189,17 +509,200 @@ public class ClassloaderBuilder {
         ClassRealm parent = getNewOrPreviousClassloader(newRealm.parentKey);
         Mask parentMask = newRealm.associatedMasks.get(newRealm.parentKey);
         parentMask = mergeWithExportMask(parentMask, newRealm.parentKey);
-        newRealm.realm.setParent(new DefaultClassloaderRef(parent, parentMask));
+        newRealm.realm.setParent(newRealm.newRef(parent, parentMask));
       }
       for (String siblingKey : newRealm.siblingKeys) {
         ClassRealm sibling = getNewOrPreviousClassloader(siblingKey);
         Mask siblingMask = newRealm.associatedMasks.get(siblingKey);
         siblingMask = mergeWithExportMask(siblingMask, siblingKey);
-        newRealm.realm.addSibling(new DefaultClassloaderRef(sibling, siblingMask));
+        newRealm.realm.addSibling(newRealm.newRef(sibling, siblingMask));
+      }
+      newRealm.realm.setClassListRecorder(classListRecorder);
+      newRealm.realm.setLeakTracker(leakDetector == null ? null : leakDetector.track(newRealm.realm));
+      for (DefaultClassloaderRef ref : newRealm.refs) {
+        ref.setNegativeCacheSize(newRealm.negativeLookupCacheSize);
       }
       result.put(newRealm.realm.getKey(), newRealm.realm);
     }
-    return result;
+    IndexCache indexCache = indexCacheFile == null ? null : IndexCache.load(indexCacheFile);
+    Map<ClassRealm, List<Constituent>> constituentsByRealm = openConstituents(executor, indexCache);
+    if (indexCache != null) {
+      saveIndexCache(indexCache);
+    }
+    HoistingReport hoistingReport = constituentHoisting ? hoistConstituents(constituentsByRealm, result) : new HoistingReport();
+    for (Map.Entry<ClassRealm, List<Constituent>> entry : constituentsByRealm.entrySet()) {
+      entry.getKey().index(entry.getValue());
+    }
+    if (platformPackageShortcut) {
+      Map<ClassLoader, PlatformPackages> packagesByBase = new IdentityHashMap<>();
+      for (NewRealm newRealm : newRealmsByKey.values()) {
+        ClassLoader base = newRealm.realm.getParent();
+        PlatformPackages packages = packagesByBase.computeIfAbsent(base, PlatformPackages::of);
+        newRealm.realm.setPlatformPackages(packages);
+      }
+    }
+    if (packageRouting) {
+      List<ClassRealm> realms = new ArrayList<>();
+      for (NewRealm newRealm : newRealmsByKey.values()) {
+        realms.add(newRealm.realm);
+      }
+      PackageRoutes.compute(realms, getSystemClassloader());
+    }
+    return new ClassloaderGraph(result, copySettings(emptyList()), hoistingReport, indexCache);
+  }
+
+  private void saveIndexCache(IndexCache indexCache) {
+    try {
+      indexCache.save();
+    } catch (IOException e) {
+      throw new IllegalStateException(String.format("Fail to save index cache to %s", indexCacheFile), e);
+    }
+  }
+
+  /**
+   * @return the opened constituents of each new classloader, in the order of its URLs
+   */
+  private Map<ClassRealm, List<Constituent>> openConstituents(Executor executor, @Nullable IndexCache indexCache) {
+    Map<ClassRealm, List<Future<Constituent>>> tasksByRealm = new LinkedHashMap<>();
+    boolean success = false;
+    try {
+      for (NewRealm newRealm : newRealmsByKey.values()) {
+        List<Future<Constituent>> tasks = new ArrayList<>();
+        tasksByRealm.put(newRealm.realm, tasks);
+        for (final URL url : newRealm.realm.getURLs()) {
+          Callable<Constituent> inMemory = newRealm.inMemory.get(url);
+          FutureTask<Constituent> task = new FutureTask<>(inMemory != null ? inMemory : () -> openConstituent(url, indexCache));
+          executor.execute(task);
+          tasks.add(task);
+        }
+      }
+      Map<ClassRealm, List<Constituent>> constituentsByRealm = new LinkedHashMap<>();
+      for (Map.Entry<ClassRealm, List<Future<Constituent>>> entry : tasksByRealm.entrySet()) {
+        List<Constituent> constituents = new ArrayList<>();
+        for (Future<Constituent> task : entry.getValue()) {
+          constituents.add(getConstituent(task));
+        }
+        constituentsByRealm.put(entry.getKey(), constituents);
+      }
+      success = true;
+      return constituentsByRealm;
+    } finally {
+      if (!success) {
+        closeOpenedConstituents(tasksByRealm.values());
+      }
+    }
+  }
+
+  /**
+   * Moves the JAR files declared by several classloaders to shared classloaders, which are added as siblings
+   */
+  private HoistingReport hoistConstituents(Map<ClassRealm, List<Constituent>> constituentsByRealm, Map<String, ClassRealm> result) {
+    HoistingReport report = new HoistingReport();
+    ConstituentHoisting hoisting = new ConstituentHoisting(constituentsByRealm);
+    for (ConstituentHoisting.Group group : hoisting.findIdenticalJars()) {
+      URL url = group.getConstituent().getURL();
+      String sharedKey = group.getSharedKey();
+      String rejection = hoisting.check(group);
+      if (rejection == null && (newRealmsByKey.containsKey(sharedKey) || previouslyCreatedClassLoaders.containsKey(sharedKey))) {
+        rejection = String.format("the classloader '%s' already exists", sharedKey);
+      }
+      if (rejection != null) {
+        report.rejected(url, group.getKeys(), rejection);
+        continue;
+      }
+      newClassloader(sharedKey, group.getBase());
+      NewRealm shared = newRealmsByKey.get(sharedKey);
+      shared.realm.setExportMask(group.getExportMask());
+      shared.realm.setClassListRecorder(classListRecorder);
+      shared.realm.setLeakTracker(leakDetector == null ? null : leakDetector.track(shared.realm));
+      List<Constituent> sharedConstituents = new ArrayList<>();
+      for (Map.Entry<ClassRealm, Constituent> entry : group.getConstituentsByRealm().entrySet()) {
+        Constituent constituent = entry.getValue();
+        List<Constituent> constituents = constituentsByRealm.get(entry.getKey());
+        constituents.removeIf(c -> c == constituent);
+        if (sharedConstituents.isEmpty()) {
+          shared.realm.addConstituent(constituent.getURL());
+          sharedConstituents.add(constituent);
+        } else {
+          Constituent.closeQuietly(constituent);
+        }
+        NewRealm newRealm = newRealmsByKey.get(entry.getKey().getKey());
+        DefaultClassloaderRef ref = newRealm.newRef(shared.realm, group.getExportMask());
+        ref.setNegativeCacheSize(newRealm.negativeLookupCacheSize);
+        newRealm.realm.addSibling(ref);
+      }
+      constituentsByRealm.put(shared.realm, sharedConstituents);
+      result.put(sharedKey, shared.realm);
+      report.hoisted(url, group.getKeys(), sharedKey);
+    }
+    return report;
+  }
+
+  private Constituent openConstituent(URL url, @Nullable IndexCache indexCache) throws Exception {
+    Callable<Constituent> opener = () -> Constituent.open(url, memoryMapping, indexCache);
+    return jarPool == null ? opener.call() : jarPool.open(url, opener);
+  }
+
+  private static Constituent getConstituent(Future<Constituent> task) {
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while opening constituents of classloaders", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException("Fail to open constituents of classloaders", cause);
+    }
+  }
+
+  /**
+   * New builder with the same settings, that can use the given classloaders as parent or siblings in addition
+   * to the previously created classloaders of this builder. Classloaders that are declared in this builder
+   * are not copied.
+   */
+  ClassloaderBuilder copySettings(Collection<ClassRealm> classloaders) {
+    List<ClassLoader> previous = new ArrayList<>(previouslyCreatedClassLoaders.values());
+    previous.addAll(classloaders);
+    ClassloaderBuilder copy = new ClassloaderBuilder(previous);
+    copy.packageRouting = packageRouting;
+    copy.memoryMapping = memoryMapping;
+    copy.platformPackageShortcut = platformPackageShortcut;
+    copy.indexCacheFile = indexCacheFile;
+    copy.classListRecorder = classListRecorder;
+    copy.leakDetector = leakDetector;
+    copy.releaseJarUrlCaches = releaseJarUrlCaches;
+    copy.jarPool = jarPool;
+    copy.constituentHoisting = constituentHoisting;
+    return copy;
+  }
+
+  boolean isReleaseJarUrlCaches() {
+    return releaseJarUrlCaches;
+  }
+
+  Set<String> getNewClassloaderKeys() {
+    return newRealmsByKey.keySet();
+  }
+
+  private static void closeOpenedConstituents(Collection<List<Future<Constituent>>> tasks) {
+    for (List<Future<Constituent>> realmTasks : tasks) {
+      for (Future<Constituent> task : realmTasks) {
+        try {
+          Constituent.closeQuietly(task.get());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        } catch (ExecutionException e) {
+          // nothing was opened
+        }
+      }
+    }
   }
 
   private Mask mergeWithExportMask(Mask mask, String exportKey) {
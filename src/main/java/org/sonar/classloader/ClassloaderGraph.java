@@ -0,0 +1,317 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+/**
+ * Classloaders created by {@link ClassloaderBuilder#buildGraph()}. Closing the graph closes all these classloaders,
+ * so that their JAR files are released without waiting for garbage collection. Classloaders are closed in
+ * dependency order: a classloader is closed before its parent and siblings. Lookups of classes and resources
+ * made after close fail with {@link IllegalStateException}. Memory mappings of JAR files, see
+ * {@link ClassloaderBuilder#setMemoryMapping(boolean)}, are still released by garbage collection.
+ * <p/>
+ * The classloaders that are not created by the builder, for example the classloaders given to
+ * {@link ClassloaderBuilder#setParent(String, ClassLoader, Mask)}, are not closed.
+ * <p/>
+ * A classloader can be replaced without rebuilding the whole graph, see {@link #rebuild(String, Consumer)}.
+ *
+ * @since 1.3
+ */
+public final class ClassloaderGraph implements Closeable {
+
+  private static final Logger LOGGER = Logger.getLogger(ClassloaderGraph.class.getName());
+
+  private final Map<String, ClassRealm> realmsByKey;
+
+  // settings of the builder, without its classloaders
+  private final ClassloaderBuilder settings;
+  private final HoistingReport hoistingReport;
+  @Nullable
+  private final IndexCache indexCache;
+  private boolean closed = false;
+
+  ClassloaderGraph(Map<String, ClassRealm> realmsByKey, ClassloaderBuilder settings, HoistingReport hoistingReport, @Nullable IndexCache indexCache) {
+    this.realmsByKey = realmsByKey;
+    this.settings = settings;
+    this.hoistingReport = hoistingReport;
+    this.indexCache = indexCache;
+  }
+
+  /**
+   * The classloaders, grouped by keys
+   */
+  public Map<String, ClassLoader> getClassloaders() {
+    return Collections.unmodifiableMap(new HashMap<String, ClassLoader>(realmsByKey));
+  }
+
+  /**
+   * The classloader with the given key, or null if it is not part of the graph
+   */
+  @CheckForNull
+  public ClassLoader get(String key) {
+    return realmsByKey.get(key);
+  }
+
+  /**
+   * The JAR files moved to shared classloaders when the graph has been built, see
+   * {@link ClassloaderBuilder#setConstituentHoisting(boolean)}. Empty if hoisting is disabled.
+   */
+  public HoistingReport getHoistingReport() {
+    return hoistingReport;
+  }
+
+  /**
+   * Keys of the given classloader and of the classloaders that depend on it, directly or transitively,
+   * as parent or sibling. These are the classloaders to recreate when the given one changes.
+   */
+  public synchronized Set<String> getDependents(String key) {
+    ClassRealm changed = getOrFail(key);
+    Map<ClassRealm, List<ClassRealm>> dependentsByRealm = new IdentityHashMap<>();
+    for (ClassRealm realm : realmsByKey.values()) {
+      for (ClassRealm dependency : dependenciesOf(realm)) {
+        dependentsByRealm.computeIfAbsent(dependency, r -> new ArrayList<>()).add(realm);
+      }
+    }
+    Set<String> keys = new TreeSet<>();
+    Deque<ClassRealm> queue = new ArrayDeque<>();
+    queue.add(changed);
+    while (!queue.isEmpty()) {
+      ClassRealm realm = queue.poll();
+      if (keys.add(realm.getKey())) {
+        queue.addAll(dependentsByRealm.getOrDefault(realm, Collections.emptyList()));
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * Replaces the classloader {@code key} and the classloaders that depend on it, as returned by
+   * {@link #getDependents(String)}. The other classloaders, and the classes they already loaded, are reused.
+   * <p/>
+   * {@code declarations} must declare again all the replaced classloaders on the given builder, which has the
+   * settings of the builder of this graph and can use the reused classloaders as parent or siblings, for example:
+   * <pre>
+   * graph = graph.rebuild("the-plugin", builder -&gt; builder
+   *   .newClassloader("the-plugin")
+   *   .addURL("the-plugin", newVersionOfJar)
+   *   .setParent("the-plugin", "the-api", Mask.ALL));
+   * </pre>
+   * The replaced classloaders are closed once the new ones are built. Failures to close them are logged as warnings
+   * and do not fail the rebuild. This graph must not be used anymore, the returned graph contains the reused and the
+   * new classloaders. If the build fails, this graph is not changed.
+   * <p/>
+   * Classloaders created outside this graph that depend on replaced classloaders must be rebuilt by the caller.
+   *
+   * @throws IllegalStateException if the graph is closed, if the classloader does not exist, or if one of the
+   *                               classloaders to replace is not declared
+   */
+  public synchronized ClassloaderGraph rebuild(String key, Consumer<ClassloaderBuilder> declarations) {
+    Set<String> replacedKeys = getDependents(key);
+    Map<String, ClassRealm> reused = new HashMap<>(realmsByKey);
+    reused.keySet().removeAll(replacedKeys);
+
+    ClassloaderBuilder builder = settings.copySettings(reused.values());
+    declarations.accept(builder);
+    Set<String> missing = new TreeSet<>(replacedKeys);
+    missing.removeAll(builder.getNewClassloaderKeys());
+    if (!missing.isEmpty()) {
+      throw new IllegalStateException(String.format("Fail to rebuild classloader '%s'. Classloaders %s must be declared again", key, missing));
+    }
+    try {
+      // the build loads the cache file again
+      saveIndexCache();
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Fail to save index cache", e);
+    }
+    ClassloaderGraph built = builder.buildGraph();
+
+    List<ClassRealm> replaced = new ArrayList<>();
+    for (ClassRealm realm : closingOrder()) {
+      if (replacedKeys.contains(realm.getKey())) {
+        replaced.add(realm);
+      }
+    }
+    // the reused classloaders now belong to the new graph
+    closed = true;
+    Map<String, ClassRealm> realms = new HashMap<>(reused);
+    realms.putAll(built.realmsByKey);
+    ClassloaderGraph graph = new ClassloaderGraph(realms, settings, built.hoistingReport, built.indexCache);
+    try {
+      closeRealms(replaced);
+    } catch (IOException e) {
+      // the new classloaders are in use, they must not leak because of the replaced ones
+      LOGGER.log(Level.WARNING, String.format("Fail to close the replaced classloaders %s", replacedKeys), e);
+    }
+    return graph;
+  }
+
+  /**
+   * Closes all the classloaders, even if some of them fail to close, then saves the changes of the index cache,
+   * see {@link ClassloaderBuilder#setIndexCache(File)}. Does nothing if already closed.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    IOException failure = null;
+    try {
+      closeRealms(closingOrder());
+    } catch (IOException e) {
+      failure = e;
+    }
+    try {
+      saveIndexCache();
+    } catch (IOException e) {
+      failure = addFailure(failure, e);
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Indexes of JAR files forgotten during lookups, see {@link IndexCache#invalidate(File, IndexCache.Key)}
+   */
+  private void saveIndexCache() throws IOException {
+    if (indexCache != null) {
+      indexCache.save();
+    }
+  }
+
+  private void closeRealms(List<ClassRealm> realms) throws IOException {
+    IOException failure = null;
+    for (ClassRealm realm : realms) {
+      try {
+        realm.close();
+      } catch (IOException e) {
+        failure = addFailure(failure, e);
+      }
+      if (settings.isReleaseJarUrlCaches()) {
+        releaseJarUrlCaches(realm);
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private ClassRealm getOrFail(String key) {
+    if (closed) {
+      throw new IllegalStateException("Classloader graph is closed");
+    }
+    ClassRealm realm = realmsByKey.get(key);
+    if (realm == null) {
+      throw new IllegalStateException(String.format("The classloader '%s' does not exist", key));
+    }
+    return realm;
+  }
+
+  /**
+   * Dependents first, then their parent and siblings. Cycles of siblings are closed in any order.
+   */
+  List<ClassRealm> closingOrder() {
+    List<ClassRealm> dependenciesFirst = new ArrayList<>();
+    Set<ClassRealm> visited = Collections.newSetFromMap(new IdentityHashMap<ClassRealm, Boolean>());
+    for (ClassRealm realm : realmsByKey.values()) {
+      visit(realm, visited, dependenciesFirst);
+    }
+    Collections.reverse(dependenciesFirst);
+    return dependenciesFirst;
+  }
+
+  private void visit(ClassRealm realm, Set<ClassRealm> visited, List<ClassRealm> dependenciesFirst) {
+    if (!visited.add(realm)) {
+      return;
+    }
+    for (ClassRealm dependency : dependenciesOf(realm)) {
+      visit(dependency, visited, dependenciesFirst);
+    }
+    dependenciesFirst.add(realm);
+  }
+
+  /**
+   * Parent and siblings of the classloader that are part of the graph
+   */
+  private List<ClassRealm> dependenciesOf(ClassRealm realm) {
+    List<ClassloaderRef> refs = new ArrayList<>(realm.getSiblingRefs());
+    refs.add(realm.getParentRef());
+    List<ClassRealm> dependencies = new ArrayList<>();
+    for (ClassloaderRef ref : refs) {
+      if (ref instanceof DefaultClassloaderRef) {
+        ClassLoader target = ((DefaultClassloaderRef) ref).getClassloader();
+        if (target instanceof ClassRealm && realmsByKey.get(((ClassRealm) target).getKey()) == target) {
+          dependencies.add((ClassRealm) target);
+        }
+      }
+    }
+    return dependencies;
+  }
+
+  /**
+   * Closes the JAR files cached by {@link JarURLConnection} when the URLs of resources returned by the
+   * classloader are opened, for example "jar:file:/path/to/file.jar!/org/foo/config.xml"
+   */
+  private static void releaseJarUrlCaches(ClassRealm realm) {
+    for (URL url : realm.getURLs()) {
+      if ("file".equals(url.getProtocol()) && !url.getFile().endsWith("/")) {
+        try {
+          URLConnection connection = new URL("jar", "", -1, url + "!/").openConnection();
+          if (connection instanceof JarURLConnection) {
+            // the cached JAR file, if any, is removed from cache when closed
+            ((JarURLConnection) connection).getJarFile().close();
+          }
+        } catch (IOException e) {
+          // the file can not be opened, so it is not cached
+        }
+      }
+    }
+  }
+
+  private static IOException addFailure(@CheckForNull IOException failure, IOException e) {
+    if (failure == null) {
+      return e;
+    }
+    failure.addSuppressed(e);
+    return failure;
+  }
+}
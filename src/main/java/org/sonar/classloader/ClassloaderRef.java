@@ -20,7 +20,7 @@
 package org.sonar.classloader;
 
 import java.net.URL;
-import java.util.Collection;
+import java.util.Enumeration;
 import javax.annotation.CheckForNull;
 
 interface ClassloaderRef {
@@ -31,20 +31,24 @@ interface ClassloaderRef {
    * @param name name of class, for example "org.foo.Bar"
    */
   @CheckForNull
-  Class loadClassIfPresent(String name);
+  Class loadClassIfPresent(String name, VisitedRealms visited);
 
   /**
    * Searches for a resource. Returns null if not found.
    * @param name name of resource, for example "org/foo/Bar.class" or "org/foo/config.xml"
    */
   @CheckForNull
-  URL loadResourceIfPresent(String name);
+  URL loadResourceIfPresent(String name, VisitedRealms visited);
 
   /**
    * Searches for all the occurrences of a resource from hierarchy of classloaders.
-   * Results are appended to the parameter "appendTo". Order of resources is given by the
-   * hierarchy order of classloaders.
+   * Order of resources is given by the hierarchy order of classloaders.
    * @see #loadResourceIfPresent(String) for the format of resource name
    */
-  void loadResources(String name, Collection<URL> appendTo);
+  Enumeration<URL> loadResources(String name, VisitedRealms visited);
+
+  /**
+   * Forgets the lookups cached by this reference, if any
+   */
+  void invalidateCaches();
 }
@@ -0,0 +1,345 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.Closeable;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.CodeSigner;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+/**
+ * Element of the classpath of a {@link ClassRealm}, for example a JAR file or a directory.
+ * A constituent is opened once when the realm is built, and lists the directories
+ * that contain its entries so that the realm can skip it when looking up a name
+ * that it can not contain.
+ */
+abstract class Constituent implements Closeable {
+
+  private final URL url;
+
+  Constituent(URL url) {
+    this.url = url;
+  }
+
+  /**
+   * Location of the constituent, as declared by {@link ClassloaderBuilder#addURL(String, URL)}.
+   */
+  URL getURL() {
+    return url;
+  }
+
+  /**
+   * Directories of all the entries, for example "org/foo" for the entry "org/foo/Bar.class" and
+   * "" for the entries of the root directory. Returns null if the constituent can not be
+   * indexed. In this case it must be considered as containing any name.
+   */
+  @CheckForNull
+  abstract Set<String> getDirectories();
+
+  /**
+   * Searches for an entry. Returns null if not found.
+   * @param name name of resource, for example "org/foo/Bar.class" or "org/foo/config.xml"
+   */
+  @CheckForNull
+  abstract Entry findEntry(String name) throws IOException;
+
+  @Override
+  public void close() throws IOException {
+    // nothing to release by default
+  }
+
+  @Override
+  public String toString() {
+    return url.toString();
+  }
+
+  /**
+   * Opens the constituent located at the given URL. Like {@link java.net.URLClassLoader}, a location
+   * that does not exist or that can not be read results in an empty constituent.
+   */
+  static Constituent open(URL url) {
+    return open(url, false);
+  }
+
+  /**
+   * @param memoryMapping whether JAR files are mapped in memory, see {@link MappedJarConstituent}
+   */
+  static Constituent open(URL url, boolean memoryMapping) {
+    return open(url, memoryMapping, null);
+  }
+
+  /**
+   * @param indexCache the directories of the JAR files opened by previous builds, or null if not persisted
+   */
+  static Constituent open(URL url, boolean memoryMapping, @Nullable IndexCache indexCache) {
+    if ("file".equals(url.getProtocol())) {
+      File file = toFile(url);
+      if (url.getFile().endsWith("/")) {
+        return new DirectoryConstituent(url, file);
+      }
+      return indexCache == null ? openJar(url, file, memoryMapping) : openIndexedJar(url, file, memoryMapping, indexCache);
+    }
+    if ("jar".equals(url.getProtocol())) {
+      Constituent nested = openNestedJar(url);
+      if (nested != null) {
+        return nested;
+      }
+    }
+    return new UrlConstituent(url);
+  }
+
+  /**
+   * Opens a JAR file nested in a JAR file of the local filesystem, for example "jar:file:/path/to/plugin.jar!/META-INF/lib/foo.jar",
+   * which is not supported by {@link java.net.URLClassLoader}. Returns null if the URL does not reference a nested JAR file.
+   * Versioned entries and Class-Path references of the nested JAR file are ignored. The constituent is empty if the outer
+   * file or the entry does not exist.
+   *
+   * @throws IllegalStateException if the outer file or the nested JAR file can not be read, for example if it is corrupted
+   */
+  @CheckForNull
+  private static Constituent openNestedJar(URL url) {
+    String spec = url.getFile();
+    int separator = spec.indexOf("!/");
+    if (separator < 0 || !spec.startsWith("file:") || spec.endsWith("/")) {
+      return null;
+    }
+    try {
+      File outerFile = toFile(new URL(spec.substring(0, separator)));
+      String entryName = decodePath(spec.substring(separator + 2));
+      MappedJarConstituent nested = outerFile.isFile() ? MappedJarConstituent.readNested(url, outerFile, entryName) : null;
+      return nested == null ? new EmptyConstituent(url) : nested;
+    } catch (IOException e) {
+      throw new IllegalStateException(String.format("Fail to open nested JAR file %s", url), e);
+    }
+  }
+
+  private static Constituent openIndexedJar(URL url, File file, boolean memoryMapping, IndexCache indexCache) {
+    IndexCache.Key key = file.isFile() ? IndexCache.keyOf(file) : null;
+    if (key == null) {
+      return openJar(url, file, memoryMapping);
+    }
+    IndexCache.JarIndex cached = indexCache.get(file, key);
+    if (cached != null) {
+      if (cached.requiresJdkSupport()) {
+        return new UrlConstituent(url);
+      }
+      return new IndexedJarConstituent(url, file, cached.getDirectories(), memoryMapping, indexCache, key);
+    }
+    Constituent constituent = openJar(url, file, memoryMapping);
+    indexCache.put(file, key, constituent);
+    return constituent;
+  }
+
+  static Constituent openJar(URL url, File file, boolean memoryMapping) {
+    if (!file.isFile()) {
+      return new EmptyConstituent(url);
+    }
+    if (memoryMapping) {
+      Constituent mapped = mapJar(url, file);
+      if (mapped != null) {
+        return mapped;
+      }
+    }
+    JarFile jarFile = null;
+    try {
+      jarFile = new JarFile(file);
+      Manifest manifest = jarFile.getManifest();
+      if (requiresJdkSupport(manifest)) {
+        // versioned entries and Class-Path references are resolved by java.net.URLClassLoader
+        jarFile.close();
+        return new UrlConstituent(url);
+      }
+      return new JarConstituent(url, jarFile, manifest);
+    } catch (IOException e) {
+      closeQuietly(jarFile);
+      return new EmptyConstituent(url);
+    }
+  }
+
+  /**
+   * Returns null if the JAR file must be read with {@link JarFile}, for example when it is
+   * signed or when it uses the ZIP64 format.
+   */
+  @CheckForNull
+  private static Constituent mapJar(URL url, File file) {
+    try {
+      MappedJarConstituent mapped = MappedJarConstituent.map(url, file);
+      if (mapped != null && requiresJdkSupport(mapped.getManifest())) {
+        mapped.close();
+        return new UrlConstituent(url);
+      }
+      return mapped;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private static boolean requiresJdkSupport(@CheckForNull Manifest manifest) {
+    if (manifest == null) {
+      return false;
+    }
+    Attributes attributes = manifest.getMainAttributes();
+    String classPath = attributes.getValue(Attributes.Name.CLASS_PATH);
+    return "true".equalsIgnoreCase(attributes.getValue("Multi-Release")) || (classPath != null && !classPath.trim().isEmpty());
+  }
+
+  private static File toFile(URL url) {
+    try {
+      return new File(url.toURI());
+    } catch (URISyntaxException | IllegalArgumentException e) {
+      return new File(url.getPath());
+    }
+  }
+
+  static void closeQuietly(@CheckForNull Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (IOException ignored) {
+        // nothing to do
+      }
+    }
+  }
+
+  /**
+   * Directory of a resource, for example "org/foo" for "org/foo/Bar.class" or
+   * "org/foo/sub/". Returns "" for the resources of the root directory.
+   */
+  static String directoryOf(String name) {
+    int end = name.endsWith("/") ? (name.length() - 2) : (name.length() - 1);
+    int slash = end < 0 ? -1 : name.lastIndexOf('/', end);
+    return slash < 0 ? "" : name.substring(0, slash);
+  }
+
+  static byte[] readFully(InputStream input, long size) throws IOException {
+    try (InputStream in = input) {
+      if (size >= 0 && size <= Integer.MAX_VALUE) {
+        byte[] bytes = new byte[(int) size];
+        int offset = 0;
+        while (offset < bytes.length) {
+          int read = in.read(bytes, offset, bytes.length - offset);
+          if (read < 0) {
+            throw new EOFException("Unexpected end of stream after " + offset + " bytes, expected " + size);
+          }
+          offset += read;
+        }
+        return bytes;
+      }
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read(buffer)) >= 0) {
+        out.write(buffer, 0, read);
+      }
+      return out.toByteArray();
+    }
+  }
+
+  /**
+   * Encodes a resource name so that it can be appended to the URL of a constituent
+   */
+  static String encodePath(String name) {
+    StringBuilder sb = null;
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (isUnreservedInPath(c)) {
+        if (sb != null) {
+          sb.append(c);
+        }
+      } else {
+        if (sb == null) {
+          sb = new StringBuilder(name.length() + 16).append(name, 0, i);
+        }
+        int codePoint = name.codePointAt(i);
+        byte[] encoded = new String(Character.toChars(codePoint)).getBytes(StandardCharsets.UTF_8);
+        for (byte b : encoded) {
+          sb.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+        }
+        i += Character.charCount(codePoint) - 1;
+      }
+    }
+    return sb == null ? name : sb.toString();
+  }
+
+  /**
+   * Decodes a resource name encoded by {@link #encodePath(String)}
+   */
+  static String decodePath(String path) {
+    try {
+      return new URI("file:///" + path).getPath().substring(1);
+    } catch (URISyntaxException e) {
+      return path;
+    }
+  }
+
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+  private static boolean isUnreservedInPath(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || "/-_.!~*'()@:$&+=,;".indexOf(c) >= 0;
+  }
+
+  /**
+   * Entry found in a constituent
+   */
+  abstract static class Entry {
+    private final URL url;
+
+    Entry(URL url) {
+      this.url = url;
+    }
+
+    URL getURL() {
+      return url;
+    }
+
+    /**
+     * Content of the entry. The position of the returned buffer is at the first byte
+     * and its limit at the last byte.
+     */
+    abstract ByteBuffer getBytes() throws IOException;
+
+    /**
+     * Signers of the entry, available once {@link #getBytes()} has been called
+     */
+    @CheckForNull
+    CodeSigner[] getCodeSigners() {
+      return null;
+    }
+
+    @CheckForNull
+    Manifest getManifest() {
+      return null;
+    }
+  }
+}
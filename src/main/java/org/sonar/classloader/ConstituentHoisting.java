@@ -0,0 +1,413 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+/**
+ * Finds the JAR files that are declared by several new classloaders with the same content, and checks whether
+ * they can be moved to a classloader that these classloaders share as sibling, see
+ * {@link ClassloaderBuilder#setConstituentHoisting(boolean)}.
+ * <p/>
+ * A JAR file is moved only if the classes it defines are the same once moved:
+ * <ul>
+ *   <li>the classloaders have the same base classloader</li>
+ *   <li>the masks of the classloaders accept all its resources</li>
+ *   <li>the directories of its files, except META-INF, are provided neither by the other constituents of the
+ *   classloaders nor by their parents and siblings, so the order of lookups does not matter. The resources of the
+ *   root directory that are not classes are compared by name instead, as the root directory is provided by
+ *   most JAR files, for example because of their entry META-INF/</li>
+ *   <li>its classes reference only the classes of the JAR file and of the base classloader, so they are resolved
+ *   the same way from the shared classloader</li>
+ * </ul>
+ * Classes loaded by reflection, for example through the context classloader, are not checked.
+ */
+class ConstituentHoisting {
+
+  private static final String META_INF = "META-INF";
+  private static final String MODULE_INFO = "module-info.class";
+
+  // constituents of the new classloaders, in the order of their URLs
+  private final Map<ClassRealm, List<Constituent>> constituentsByRealm;
+
+  ConstituentHoisting(Map<ClassRealm, List<Constituent>> constituentsByRealm) {
+    this.constituentsByRealm = constituentsByRealm;
+  }
+
+  /**
+   * JAR files of the local filesystem that are declared by at least two classloaders with the same content
+   */
+  List<Group> findIdenticalJars() {
+    Map<Long, List<Candidate>> candidatesByLength = new TreeMap<>();
+    List<ClassRealm> realms = new ArrayList<>(constituentsByRealm.keySet());
+    realms.sort(Comparator.comparing(ClassRealm::getKey));
+    for (ClassRealm realm : realms) {
+      for (Constituent constituent : constituentsByRealm.get(realm)) {
+        File file = jarFile(constituent.getURL());
+        if (file != null) {
+          candidatesByLength.computeIfAbsent(file.length(), l -> new ArrayList<>()).add(new Candidate(realm, constituent, file));
+        }
+      }
+    }
+    Map<String, Group> groupsByHash = new LinkedHashMap<>();
+    for (List<Candidate> candidates : candidatesByLength.values()) {
+      if (countRealms(candidates) < 2) {
+        continue;
+      }
+      for (Candidate candidate : candidates) {
+        String hash = hash(candidate.file);
+        if (hash != null) {
+          groupsByHash.computeIfAbsent(hash, h -> new Group(candidate.file, h)).add(candidate.realm, candidate.constituent);
+        }
+      }
+    }
+    List<Group> groups = new ArrayList<>();
+    for (Group group : groupsByHash.values()) {
+      if (group.constituentsByRealm.size() >= 2) {
+        groups.add(group);
+      }
+    }
+    return groups;
+  }
+
+  /**
+   * @return null if the JAR file can be moved to a shared classloader, else the reason why it can not
+   */
+  @CheckForNull
+  String check(Group group) {
+    ClassLoader base = group.getBase();
+    for (ClassRealm realm : group.constituentsByRealm.keySet()) {
+      if (realm.getParent() != base) {
+        return "classloaders have different base classloaders";
+      }
+    }
+    if (group.getConstituent().getDirectories() == null) {
+      return "the JAR file can not be indexed, for example because it is a multi-release JAR file or it references other files";
+    }
+    try {
+      group.read();
+    } catch (IOException e) {
+      return "fail to read the JAR file: " + e.getMessage();
+    }
+    for (ClassRealm realm : group.constituentsByRealm.keySet()) {
+      for (String entry : group.entries) {
+        if (!realm.getMask().acceptResource(entry)) {
+          return String.format("classloader %s does not accept the resource %s", realm.getKey(), entry);
+        }
+      }
+    }
+    String overlap = checkOverlaps(group);
+    return overlap != null ? overlap : checkReferences(group, base);
+  }
+
+  @CheckForNull
+  private String checkOverlaps(Group group) {
+    // directories of the files, as the directories of constituents include the parents of directory entries
+    Set<String> directories = new HashSet<>();
+    List<String> rootResources = new ArrayList<>();
+    for (String entry : group.entries) {
+      String directory = Constituent.directoryOf(entry);
+      if (directory.equals(META_INF) || directory.startsWith(META_INF + "/") || entry.endsWith(MODULE_INFO)) {
+        continue;
+      }
+      if (directory.isEmpty() && !entry.endsWith(".class")) {
+        rootResources.add(entry);
+      } else {
+        directories.add(directory);
+      }
+    }
+    Set<Constituent> hoisted = Collections.newSetFromMap(new IdentityHashMap<>());
+    hoisted.addAll(group.constituentsByRealm.values());
+    Set<ClassRealm> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+    Deque<ClassRealm> queue = new ArrayDeque<>(group.constituentsByRealm.keySet());
+    while (!queue.isEmpty()) {
+      ClassRealm realm = queue.poll();
+      if (!visited.add(realm)) {
+        continue;
+      }
+      for (Constituent constituent : constituentsOf(realm)) {
+        if (hoisted.contains(constituent)) {
+          continue;
+        }
+        Set<String> provided = constituent.getDirectories();
+        if (provided == null) {
+          return String.format("classloader %s contains %s, which can not be indexed", realm.getKey(), constituent.getURL());
+        }
+        for (String directory : directories) {
+          if (provided.contains(directory)) {
+            return String.format("directory '%s' is also provided by %s in classloader %s", directory, constituent.getURL(), realm.getKey());
+          }
+        }
+        if (provided.contains("")) {
+          String overlap = checkRootResources(rootResources, constituent, realm);
+          if (overlap != null) {
+            return overlap;
+          }
+        }
+      }
+      List<ClassloaderRef> refs = new ArrayList<>(realm.getSiblingRefs());
+      refs.add(realm.getParentRef());
+      for (ClassloaderRef ref : refs) {
+        if (ref instanceof DefaultClassloaderRef) {
+          ClassLoader target = ((DefaultClassloaderRef) ref).getClassloader();
+          if (!(target instanceof ClassRealm)) {
+            return String.format("classloader %s imports %s, which is not created by ClassloaderBuilder", realm.getKey(), target);
+          }
+          queue.add((ClassRealm) target);
+        }
+      }
+    }
+    return null;
+  }
+
+  @CheckForNull
+  private static String checkRootResources(List<String> rootResources, Constituent constituent, ClassRealm realm) {
+    for (String resource : rootResources) {
+      try {
+        if (constituent.findEntry(resource) != null) {
+          return String.format("resource '%s' is also provided by %s in classloader %s", resource, constituent.getURL(), realm.getKey());
+        }
+      } catch (IOException e) {
+        return String.format("fail to read %s: %s", constituent.getURL(), e.getMessage());
+      }
+    }
+    return null;
+  }
+
+  private List<Constituent> constituentsOf(ClassRealm realm) {
+    List<Constituent> constituents = constituentsByRealm.get(realm);
+    // previously created classloaders are indexed
+    return constituents != null ? constituents : realm.getIndex().getConstituents();
+  }
+
+  @CheckForNull
+  private static String checkReferences(Group group, @Nullable ClassLoader base) {
+    PlatformPackages platformPackages = PlatformPackages.of(base);
+    Map<String, Boolean> visibleFromBase = new HashMap<>();
+    for (Map.Entry<String, Set<String>> entry : group.referencesByClass.entrySet()) {
+      for (String reference : entry.getValue()) {
+        if (group.classes.contains(reference)) {
+          continue;
+        }
+        boolean visible = visibleFromBase.computeIfAbsent(reference, r -> isVisible(r, base, platformPackages));
+        if (!visible) {
+          return String.format("class %s references %s, which is provided neither by the JAR file nor by the base classloader",
+            entry.getKey(), reference);
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @param base the base classloader, or null for the bootstrap classloader, which does not see the classes of
+   *             the platform classloader, for example java.sql
+   */
+  static boolean isVisible(String internalName, @Nullable ClassLoader base, PlatformPackages platformPackages) {
+    String classname = internalName.replace('/', '.');
+    if (platformPackages.containsClass(classname)) {
+      return true;
+    }
+    if (base == null) {
+      try {
+        Class.forName(classname, false, null);
+        return true;
+      } catch (ClassNotFoundException | LinkageError e) {
+        return false;
+      }
+    }
+    return base.getResource(internalName + ".class") != null;
+  }
+
+  private static int countRealms(List<Candidate> candidates) {
+    Set<ClassRealm> realms = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (Candidate candidate : candidates) {
+      realms.add(candidate.realm);
+    }
+    return realms.size();
+  }
+
+  @CheckForNull
+  private static File jarFile(URL url) {
+    if (!"file".equals(url.getProtocol()) || url.getFile().endsWith("/")) {
+      return null;
+    }
+    try {
+      File file = new File(url.toURI());
+      return file.isFile() ? file : null;
+    } catch (URISyntaxException | IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * SHA-256 of the content of the file, or null if it can not be read
+   */
+  @CheckForNull
+  private static String hash(File file) {
+    try (InputStream input = Files.newInputStream(file.toPath())) {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = input.read(buffer)) >= 0) {
+        digest.update(buffer, 0, read);
+      }
+      StringBuilder sb = new StringBuilder();
+      for (byte b : digest.digest()) {
+        sb.append(String.format("%02x", b));
+      }
+      return sb.toString();
+    } catch (IOException e) {
+      return null;
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not supported", e);
+    }
+  }
+
+  private static final class Candidate {
+    private final ClassRealm realm;
+    private final Constituent constituent;
+    private final File file;
+
+    private Candidate(ClassRealm realm, Constituent constituent, File file) {
+      this.realm = realm;
+      this.constituent = constituent;
+      this.file = file;
+    }
+  }
+
+  /**
+   * Identical JAR files, at most one per classloader
+   */
+  static final class Group {
+    private final File file;
+    private final String hash;
+    private final Map<ClassRealm, Constituent> constituentsByRealm = new LinkedHashMap<>();
+
+    // content, available once read
+    private final Set<String> entries = new TreeSet<>();
+    private final Set<String> classes = new HashSet<>();
+    private final Map<String, Set<String>> referencesByClass = new TreeMap<>();
+
+    private Group(File file, String hash) {
+      this.file = file;
+      this.hash = hash;
+    }
+
+    private void add(ClassRealm realm, Constituent constituent) {
+      constituentsByRealm.putIfAbsent(realm, constituent);
+    }
+
+    Map<ClassRealm, Constituent> getConstituentsByRealm() {
+      return constituentsByRealm;
+    }
+
+    /**
+     * The constituent of the first classloader
+     */
+    Constituent getConstituent() {
+      return constituentsByRealm.values().iterator().next();
+    }
+
+    @CheckForNull
+    ClassLoader getBase() {
+      return constituentsByRealm.keySet().iterator().next().getParent();
+    }
+
+    Set<String> getKeys() {
+      Set<String> keys = new TreeSet<>();
+      for (ClassRealm realm : constituentsByRealm.keySet()) {
+        keys.add(realm.getKey());
+      }
+      return keys;
+    }
+
+    /**
+     * Key of the shared classloader, for example "commons-lang-2.6.jar@0f3a9c1e"
+     */
+    String getSharedKey() {
+      return file.getName() + "@" + hash.substring(0, 8);
+    }
+
+    /**
+     * Exports the top-level directories and the files of the root directory of the JAR file, except its manifest,
+     * so that the manifest of the first JAR file of the classloaders is still returned first. The other resources
+     * of META-INF, for example the declarations of services, are returned before the resources of the classloaders.
+     */
+    Mask getExportMask() {
+      Mask.Builder mask = Mask.builder();
+      for (String entry : entries) {
+        int slash = entry.indexOf('/');
+        mask.include(slash < 0 ? entry : entry.substring(0, slash + 1));
+      }
+      if (entries.contains(JarFile.MANIFEST_NAME)) {
+        mask.exclude(JarFile.MANIFEST_NAME);
+      }
+      return mask.build();
+    }
+
+    private void read() throws IOException {
+      try (ZipFile zip = new ZipFile(file)) {
+        Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+        while (zipEntries.hasMoreElements()) {
+          ZipEntry entry = zipEntries.nextElement();
+          String name = entry.getName();
+          if (entry.isDirectory()) {
+            continue;
+          }
+          entries.add(name);
+          if (name.endsWith(".class") && !name.startsWith(META_INF + "/") && !name.endsWith(MODULE_INFO)) {
+            String className = name.substring(0, name.length() - ".class".length());
+            classes.add(className);
+            byte[] bytes = Constituent.readFully(zip.getInputStream(entry), entry.getSize());
+            referencesByClass.put(className, ClassReferences.of(bytes));
+          }
+        }
+      }
+    }
+  }
+}
@@ -21,49 +21,109 @@ package org.sonar.classloader;
 
 import java.io.IOException;
 import java.net.URL;
-import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
 
 class DefaultClassloaderRef implements ClassloaderRef {
   private final Mask mask;
   private final ClassLoader classloader;
 
+  // the classloader, if created by ClassloaderBuilder. Lookups then share the realms they visit.
+  @Nullable
+  private final ClassRealm realm;
+
+  // optional names of the classes that are not found in the classloader
+  @Nullable
+  private volatile LruCache<String, Boolean> missingClasses;
+
   DefaultClassloaderRef(ClassLoader classloader, Mask mask) {
     this.classloader = classloader;
     this.mask = mask;
+    this.realm = classloader instanceof ClassRealm ? (ClassRealm) classloader : null;
+  }
+
+  ClassLoader getClassloader() {
+    return classloader;
+  }
+
+  Mask getMask() {
+    return mask;
+  }
+
+  /**
+   * Remembers up to {@code maxSize} names of classes that are not found, so that
+   * next lookups of these names do not call the classloader. Zero disables the cache.
+   */
+  DefaultClassloaderRef setNegativeCacheSize(int maxSize) {
+    this.missingClasses = maxSize > 0 ? new LruCache<String, Boolean>(maxSize) : null;
+    return this;
   }
 
   @Override
-  public Class loadClassIfPresent(String classname) {
+  public Class loadClassIfPresent(String classname, VisitedRealms visited) {
     if (mask.acceptClass(classname)) {
-      try {
-        return classloader.loadClass(classname);
-      } catch (ClassNotFoundException ignored) {
-        // excepted behavior. Return null if class does not exist in this classloader
+      LruCache<String, Boolean> misses = missingClasses;
+      if (misses != null && misses.get(classname) != null) {
+        return null;
+      }
+      if (realm != null && !visited.add(realm)) {
+        // already looked up through another path
+        return null;
       }
+      int skips = visited.skips();
+      Class clazz = realm != null ? realm.loadClassIfPresent(classname, visited) : loadClassFromForeign(classname);
+      if (clazz == null && misses != null && visited.skips() == skips) {
+        // not cached if realms were skipped, as they could provide the class when looked up through this path
+        misses.put(classname, Boolean.TRUE);
+      }
+      return clazz;
     }
     return null;
   }
 
+  @CheckForNull
+  private Class loadClassFromForeign(String classname) {
+    try {
+      return classloader.loadClass(classname);
+    } catch (ClassNotFoundException ignored) {
+      // excepted behavior. Return null if class does not exist in this classloader
+      return null;
+    }
+  }
+
   @Override
-  public URL loadResourceIfPresent(String name) {
+  public URL loadResourceIfPresent(String name, VisitedRealms visited) {
     if (mask.acceptResource(name)) {
-      return classloader.getResource(name);
+      if (realm == null) {
+        return classloader.getResource(name);
+      }
+      return visited.add(realm) ? realm.getResource(name, visited) : null;
     }
     return null;
   }
 
   @Override
-  public void loadResources(String name, Collection<URL> appendTo) {
+  public Enumeration<URL> loadResources(String name, VisitedRealms visited) {
     if (mask.acceptResource(name)) {
+      if (realm != null) {
+        return visited.add(realm) ? realm.getResources(name, visited) : Collections.<URL>emptyEnumeration();
+      }
       try {
-        Enumeration<URL> resources = classloader.getResources(name);
-        while (resources.hasMoreElements()) {
-          appendTo.add(resources.nextElement());
-        }
+        return classloader.getResources(name);
       } catch (IOException e) {
         throw new IllegalStateException(String.format("Fail to load resources named '%s'", name), e);
       }
     }
+    return Collections.emptyEnumeration();
+  }
+
+  @Override
+  public void invalidateCaches() {
+    LruCache<String, Boolean> misses = missingClasses;
+    if (misses != null) {
+      misses.clear();
+    }
   }
 }
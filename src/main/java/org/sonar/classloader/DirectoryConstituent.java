@@ -0,0 +1,109 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+import javax.annotation.CheckForNull;
+
+/**
+ * Directory of the local filesystem. Directories are listed when the realm is built, so
+ * the files added to new sub-directories later on are not visible.
+ */
+class DirectoryConstituent extends Constituent {
+
+  private final File dir;
+  private final Set<String> directories;
+
+  DirectoryConstituent(URL url, File dir) {
+    super(url);
+    this.dir = dir;
+    this.directories = listDirectories(dir);
+  }
+
+  private static Set<String> listDirectories(File dir) {
+    if (!dir.isDirectory()) {
+      return Collections.emptySet();
+    }
+    final Path root = dir.toPath();
+    final Set<String> result = new HashSet<>();
+    try {
+      Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) {
+          result.add(relativePath(root, path));
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException exc) {
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException e) {
+      throw new IllegalStateException(String.format("Fail to list content of directory %s", dir), e);
+    }
+    return Collections.unmodifiableSet(result);
+  }
+
+  private static String relativePath(Path root, Path path) {
+    StringBuilder sb = new StringBuilder();
+    for (Path segment : root.relativize(path)) {
+      if (sb.length() > 0) {
+        sb.append('/');
+      }
+      sb.append(segment.toString());
+    }
+    return sb.toString();
+  }
+
+  @Override
+  Set<String> getDirectories() {
+    return directories;
+  }
+
+  @CheckForNull
+  @Override
+  Entry findEntry(String name) throws IOException {
+    final File file = new File(dir, name.replace('/', File.separatorChar));
+    if (!file.exists() || (name.contains("..") && !file.getCanonicalPath().startsWith(dir.getCanonicalPath()))) {
+      return null;
+    }
+    return new Entry(new URL(getURL(), encodePath(name))) {
+      @Override
+      ByteBuffer getBytes() throws IOException {
+        return ByteBuffer.wrap(readFully(new FileInputStream(file), file.length()));
+      }
+    };
+  }
+}
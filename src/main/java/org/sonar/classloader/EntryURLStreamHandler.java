@@ -0,0 +1,121 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.ByteBuffer;
+
+/**
+ * Handler of the URLs of entries that are not read by the JDK, for example the entries of
+ * memory-mapped JAR files. The URLs keep the standard format, like "jar:file:/path/to/file.jar!/org/foo/Bar.class",
+ * but are opened without {@link java.util.jar.JarFile}.
+ */
+class EntryURLStreamHandler extends URLStreamHandler {
+
+  /**
+   * Content of an entry
+   */
+  interface Source {
+    ByteBuffer read() throws IOException;
+
+    long length();
+  }
+
+  private final Source source;
+
+  private EntryURLStreamHandler(Source source) {
+    this.source = source;
+  }
+
+  static URL newURL(String spec, Source source) throws MalformedURLException {
+    int colon = spec.indexOf(':');
+    return new URL(spec.substring(0, colon), "", -1, spec.substring(colon + 1), new EntryURLStreamHandler(source));
+  }
+
+  @Override
+  protected URLConnection openConnection(URL u) {
+    return new URLConnection(u) {
+      @Override
+      public void connect() {
+        connected = true;
+      }
+
+      @Override
+      public InputStream getInputStream() throws IOException {
+        connect();
+        return new ByteBufferInputStream(source.read());
+      }
+
+      @Override
+      public long getContentLengthLong() {
+        return source.length();
+      }
+
+      @Override
+      public int getContentLength() {
+        long length = source.length();
+        return length > Integer.MAX_VALUE ? -1 : (int) length;
+      }
+    };
+  }
+
+  static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? (buffer.get() & 0xFF) : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int count = Math.min(len, buffer.remaining());
+      buffer.get(b, off, count);
+      return count;
+    }
+
+    @Override
+    public long skip(long n) {
+      int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+      buffer.position(buffer.position() + count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Result of the hoisting of the JAR files declared by several classloaders, see
+ * {@link ClassloaderBuilder#setConstituentHoisting(boolean)}.
+ *
+ * @since 1.3
+ */
+public final class HoistingReport {
+
+  private final List<Hoisted> hoisted = new ArrayList<>();
+  private final List<Rejected> rejected = new ArrayList<>();
+
+  /**
+   * JAR files moved to a shared classloader
+   */
+  public List<Hoisted> getHoisted() {
+    return Collections.unmodifiableList(hoisted);
+  }
+
+  /**
+   * Identical JAR files that are kept in the classloaders that declare them
+   */
+  public List<Rejected> getRejected() {
+    return Collections.unmodifiableList(rejected);
+  }
+
+  void hoisted(URL url, Set<String> classloaders, String sharedClassloader) {
+    hoisted.add(new Hoisted(url, classloaders, sharedClassloader));
+  }
+
+  void rejected(URL url, Set<String> classloaders, String reason) {
+    rejected.add(new Rejected(url, classloaders, reason));
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (Hoisted h : hoisted) {
+      sb.append(h).append('\n');
+    }
+    for (Rejected r : rejected) {
+      sb.append(r).append('\n');
+    }
+    return sb.toString();
+  }
+
+  /**
+   * JAR file moved to a shared classloader
+   */
+  public static final class Hoisted {
+    private final URL url;
+    private final Set<String> classloaders;
+    private final String sharedClassloader;
+
+    private Hoisted(URL url, Set<String> classloaders, String sharedClassloader) {
+      this.url = url;
+      this.classloaders = Collections.unmodifiableSet(new LinkedHashSet<>(classloaders));
+      this.sharedClassloader = sharedClassloader;
+    }
+
+    /**
+     * Location of the JAR file, as declared by the first of the classloaders
+     */
+    public URL getURL() {
+      return url;
+    }
+
+    /**
+     * Keys of the classloaders that declared the JAR file. The shared classloader is one of their siblings.
+     */
+    public Set<String> getClassloaders() {
+      return classloaders;
+    }
+
+    /**
+     * Key of the shared classloader that contains the JAR file
+     */
+    public String getSharedClassloader() {
+      return sharedClassloader;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Hoisted %s of classloaders %s to classloader %s", url, classloaders, sharedClassloader);
+    }
+  }
+
+  /**
+   * JAR file declared by several classloaders that can not be moved to a shared classloader
+   */
+  public static final class Rejected {
+    private final URL url;
+    private final Set<String> classloaders;
+    private final String reason;
+
+    private Rejected(URL url, Set<String> classloaders, String reason) {
+      this.url = url;
+      this.classloaders = Collections.unmodifiableSet(new LinkedHashSet<>(classloaders));
+      this.reason = reason;
+    }
+
+    public URL getURL() {
+      return url;
+    }
+
+    public Set<String> getClassloaders() {
+      return classloaders;
+    }
+
+    /**
+     * Why the JAR file is kept in each classloader, for example "package org/foo is also provided by classloader b"
+     */
+    public String getReason() {
+      return reason;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Did not hoist %s of classloaders %s: %s", url, classloaders, reason);
+    }
+  }
+}
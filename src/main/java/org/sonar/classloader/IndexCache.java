@@ -0,0 +1,277 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import javax.annotation.CheckForNull;
+
+/**
+ * Directories of the JAR files opened by previous builds, persisted in a local file. See
+ * {@link ClassloaderBuilder#setIndexCache(File)}.
+ * <p/>
+ * A JAR file is identified by its absolute path, size, last modification time, file key (for example the inode)
+ * and a checksum of its central directory, which contains the names, CRC-32 and sizes of all the entries. Only the
+ * end of the file is read to compute the checksum, so that a JAR file rewritten in place within the precision of
+ * timestamps is detected. The cached directories of a JAR file are used only if all these attributes are unchanged.
+ * The file of the cache is protected by a checksum. When it can't be read, for example because it is corrupted or
+ * written by another version, it is ignored and rebuilt.
+ * <p/>
+ * Thread-safe, the JAR files can be opened in parallel.
+ */
+class IndexCache {
+
+  private static final int MAGIC = 0x534f4e49;
+  private static final int VERSION = 3;
+
+  private final File file;
+  private final Map<String, JarIndex> byPath = new ConcurrentHashMap<>();
+  private volatile boolean changed = false;
+
+  private IndexCache(File file) {
+    this.file = file;
+  }
+
+  /**
+   * Reads the cache file. The cache is empty if the file does not exist or is invalid.
+   */
+  static IndexCache load(File file) {
+    IndexCache cache = new IndexCache(file);
+    if (file.isFile()) {
+      try {
+        cache.read();
+      } catch (IOException | RuntimeException e) {
+        // invalid file, all the JAR files are scanned again
+        cache.byPath.clear();
+        cache.changed = true;
+      }
+    }
+    return cache;
+  }
+
+  private void read() throws IOException {
+    CRC32 crc = new CRC32();
+    try (DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(new FileInputStream(file)), crc))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Unsupported format of index cache: " + file);
+      }
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        String path = in.readUTF();
+        Key key = new Key(in.readLong(), in.readLong(), in.readUTF(), in.readLong());
+        boolean requiresJdkSupport = in.readBoolean();
+        int directoryCount = in.readInt();
+        Set<String> directories = new HashSet<>();
+        for (int j = 0; j < directoryCount; j++) {
+          directories.add(in.readUTF());
+        }
+        byPath.put(path, new JarIndex(key, requiresJdkSupport, Collections.unmodifiableSet(directories)));
+      }
+      long expectedCrc = crc.getValue();
+      if (in.readLong() != expectedCrc) {
+        throw new IOException("Corrupted index cache: " + file);
+      }
+    }
+  }
+
+  /**
+   * Writes the cache file if JAR files have been scanned or deleted since it has been loaded. The file is replaced atomically
+   * when supported by the filesystem.
+   */
+  synchronized void save() throws IOException {
+    // forget the JAR files that have been deleted
+    if (byPath.keySet().removeIf(path -> !new File(path).isFile())) {
+      changed = true;
+    }
+    if (!changed) {
+      return;
+    }
+    File parent = file.getAbsoluteFile().getParentFile();
+    Files.createDirectories(parent.toPath());
+    File tmp = File.createTempFile(file.getName(), ".tmp", parent);
+    try {
+      write(tmp);
+      try {
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      changed = false;
+    } finally {
+      Files.deleteIfExists(tmp.toPath());
+    }
+  }
+
+  private void write(File target) throws IOException {
+    CRC32 crc = new CRC32();
+    try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(target)), crc))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(byPath.size());
+      for (Map.Entry<String, JarIndex> entry : byPath.entrySet()) {
+        JarIndex index = entry.getValue();
+        out.writeUTF(entry.getKey());
+        out.writeLong(index.key.size);
+        out.writeLong(index.key.lastModified);
+        out.writeUTF(index.key.fileKey);
+        out.writeLong(index.key.checksum);
+        out.writeBoolean(index.requiresJdkSupport);
+        out.writeInt(index.directories.size());
+        for (String directory : index.directories) {
+          out.writeUTF(directory);
+        }
+      }
+      out.flush();
+      out.writeLong(crc.getValue());
+    }
+  }
+
+  int size() {
+    return byPath.size();
+  }
+
+  /**
+   * Identifies the current content of a JAR file. Returns null if the file can not be cached, for example
+   * if it is not a ZIP archive.
+   */
+  @CheckForNull
+  static Key keyOf(File jar) {
+    try (FileChannel channel = FileChannel.open(jar.toPath(), StandardOpenOption.READ)) {
+      BasicFileAttributes attributes = Files.readAttributes(jar.toPath(), BasicFileAttributes.class);
+      Object fileKey = attributes.fileKey();
+      return new Key(attributes.size(), attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS), fileKey == null ? "" : fileKey.toString(),
+        ZipDirectory.checksumOfCentralDirectory(channel));
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * The cached index of the JAR file, or null if it is unknown or if the file has changed
+   */
+  @CheckForNull
+  JarIndex get(File jar, Key key) {
+    JarIndex index = byPath.get(jar.getAbsolutePath());
+    return index != null && index.key.equals(key) ? index : null;
+  }
+
+  /**
+   * Forgets the cached index of a JAR file whose directories differ from the ones listed when opening it,
+   * for example because it has been rewritten since the build. The cache file is not written during lookups,
+   * the change is saved when the graph of classloaders is closed, see {@link ClassloaderGraph#close()}.
+   */
+  void invalidate(File jar, Key key) {
+    if (byPath.remove(jar.getAbsolutePath(), get(jar, key))) {
+      changed = true;
+    }
+  }
+
+  /**
+   * Records the index of a JAR file that has just been opened. Constituents that do not list their
+   * directories are not recorded, except when the JAR file requires {@link UrlConstituent}.
+   */
+  void put(File jar, Key key, Constituent constituent) {
+    JarIndex index;
+    if (constituent instanceof UrlConstituent) {
+      index = new JarIndex(key, true, Collections.<String>emptySet());
+    } else if (constituent.getDirectories() != null && !(constituent instanceof EmptyConstituent)) {
+      index = new JarIndex(key, false, constituent.getDirectories());
+    } else {
+      return;
+    }
+    byPath.put(jar.getAbsolutePath(), index);
+    changed = true;
+  }
+
+  /**
+   * Size, last modification time in nanoseconds, file key and checksum of central directory of a JAR file.
+   * The file key is empty if not supported by the filesystem.
+   */
+  static final class Key {
+    private final long size;
+    private final long lastModified;
+    private final String fileKey;
+    private final long checksum;
+
+    Key(long size, long lastModified, String fileKey, long checksum) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.fileKey = fileKey;
+      this.checksum = checksum;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return size == other.size && lastModified == other.lastModified && fileKey.equals(other.fileKey) && checksum == other.checksum;
+    }
+
+    @Override
+    public int hashCode() {
+      return Long.hashCode(size) * 31 + Long.hashCode(checksum);
+    }
+  }
+
+  static final class JarIndex {
+    private final Key key;
+    private final boolean requiresJdkSupport;
+    private final Set<String> directories;
+
+    private JarIndex(Key key, boolean requiresJdkSupport, Set<String> directories) {
+      this.key = key;
+      this.requiresJdkSupport = requiresJdkSupport;
+      this.directories = directories;
+    }
+
+    /**
+     * Whether the JAR file must be opened by {@link UrlConstituent}, see {@link Constituent#open(java.net.URL, boolean)}
+     */
+    boolean requiresJdkSupport() {
+      return requiresJdkSupport;
+    }
+
+    Set<String> getDirectories() {
+      return directories;
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Set;
+import javax.annotation.CheckForNull;
+
+/**
+ * JAR file whose directories are known from {@link IndexCache}. The file is opened only when an entry
+ * is looked up, so that the JAR files of packages that are never requested are not read. The cached
+ * directories are then compared with the listed ones, and are forgotten by the cache if they differ.
+ */
+class IndexedJarConstituent extends Constituent {
+
+  private final File file;
+  private final Set<String> directories;
+  private final boolean memoryMapping;
+  private final IndexCache indexCache;
+  private final IndexCache.Key key;
+
+  @CheckForNull
+  private volatile Constituent opened = null;
+  private boolean closed = false;
+
+  IndexedJarConstituent(URL url, File file, Set<String> directories, boolean memoryMapping, IndexCache indexCache, IndexCache.Key key) {
+    super(url);
+    this.file = file;
+    this.directories = directories;
+    this.memoryMapping = memoryMapping;
+    this.indexCache = indexCache;
+    this.key = key;
+  }
+
+  @Override
+  Set<String> getDirectories() {
+    return directories;
+  }
+
+  @CheckForNull
+  @Override
+  Entry findEntry(String name) throws IOException {
+    return open().findEntry(name);
+  }
+
+  private Constituent open() throws IOException {
+    Constituent constituent = opened;
+    if (constituent == null) {
+      synchronized (this) {
+        if (closed) {
+          throw new IOException("Constituent is closed: " + getURL());
+        }
+        constituent = opened;
+        if (constituent == null) {
+          constituent = openJar(getURL(), file, memoryMapping);
+          if (!directories.equals(constituent.getDirectories())) {
+            // rewritten since the build. Classes of new directories are not found until next build.
+            indexCache.invalidate(file, key);
+          }
+          opened = constituent;
+        }
+      }
+    }
+    return constituent;
+  }
+
+  boolean isOpened() {
+    return opened != null;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    closed = true;
+    Constituent constituent = opened;
+    if (constituent != null) {
+      constituent.close();
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.security.CodeSigner;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import javax.annotation.CheckForNull;
+
+/**
+ * JAR file located on the local filesystem. The file is kept open as long as the realm is alive.
+ */
+class JarConstituent extends Constituent {
+
+  private final JarFile jarFile;
+  @CheckForNull
+  private final Manifest manifest;
+  private final URL baseUrl;
+  private final Set<String> directories;
+
+  JarConstituent(URL url, JarFile jarFile, @CheckForNull Manifest manifest) throws MalformedURLException {
+    super(url);
+    this.jarFile = jarFile;
+    this.manifest = manifest;
+    this.baseUrl = new URL("jar", "", -1, url + "!/");
+    this.directories = listDirectories(jarFile);
+  }
+
+  private static Set<String> listDirectories(JarFile jarFile) {
+    Set<String> result = new HashSet<>();
+    Enumeration<JarEntry> entries = jarFile.entries();
+    while (entries.hasMoreElements()) {
+      result.add(directoryOf(entries.nextElement().getName()));
+    }
+    return Collections.unmodifiableSet(result);
+  }
+
+  @Override
+  Set<String> getDirectories() {
+    return directories;
+  }
+
+  @CheckForNull
+  @Override
+  Entry findEntry(String name) throws IOException {
+    final JarEntry jarEntry = jarFile.getJarEntry(name);
+    if (jarEntry == null) {
+      return null;
+    }
+    return new Entry(new URL(baseUrl, encodePath(name))) {
+      @Override
+      ByteBuffer getBytes() throws IOException {
+        return ByteBuffer.wrap(readFully(jarFile.getInputStream(jarEntry), jarEntry.getSize()));
+      }
+
+      @Override
+      CodeSigner[] getCodeSigners() {
+        return jarEntry.getCodeSigners();
+      }
+
+      @Override
+      Manifest getManifest() {
+        return manifest;
+      }
+    };
+  }
+
+  @Override
+  public void close() throws IOException {
+    jarFile.close();
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.CheckForNull;
+
+/**
+ * JAR files opened once for all the classloaders that declare them, see
+ * {@link ClassloaderBuilder#setJarSharing(boolean)}. Each classloader gets its own handle on the shared
+ * constituent. The constituent is closed when the last handle is closed, so the pool does not retain
+ * the JAR files of closed classloaders.
+ * <p/>
+ * A JAR file is shared only while its size, last modification time, file key and central directory are unchanged, see
+ * {@link IndexCache#keyOf(File)}. A JAR file replaced while shared, for example by a new version of a plugin,
+ * is opened again. The classloaders that hold the previous version keep reading it until they are closed.
+ */
+final class JarPool {
+
+  private final Map<File, PooledJar> jarsByFile = new ConcurrentHashMap<>();
+
+  /**
+   * Returns a handle on the constituent of the JAR file located at {@code url}, opened by {@code opener}
+   * if it is not shared yet. Directories and other locations are not shared.
+   */
+  Constituent open(URL url, Callable<Constituent> opener) throws Exception {
+    File file = canonicalJarFile(url);
+    IndexCache.Key key = file == null ? null : IndexCache.keyOf(file);
+    if (key == null) {
+      return opener.call();
+    }
+    while (true) {
+      PooledJar jar = jarsByFile.computeIfAbsent(file, f -> new PooledJar(key));
+      if (!jar.key.equals(key)) {
+        // replaced since opened. The previous version is not shared anymore.
+        jarsByFile.remove(file, jar);
+        continue;
+      }
+      Constituent shared = jar.acquire(url, opener);
+      if (shared != null) {
+        return new SharedJarConstituent(url, shared, () -> release(file, jar));
+      }
+      if (jar.isReleased()) {
+        // the last handle has been closed concurrently
+        jarsByFile.remove(file, jar);
+        continue;
+      }
+      // declared by another URL, for example through a symbolic link. Entries must have the URLs
+      // of the declaring classloader, so the JAR file is not shared.
+      return opener.call();
+    }
+  }
+
+  private void release(File file, PooledJar jar) {
+    if (jar.release()) {
+      jarsByFile.remove(file, jar);
+    }
+  }
+
+  /**
+   * JAR files currently shared
+   */
+  Set<File> getFiles() {
+    return jarsByFile.keySet();
+  }
+
+  @CheckForNull
+  private static File canonicalJarFile(URL url) {
+    if (!"file".equals(url.getProtocol()) || url.getFile().endsWith("/")) {
+      return null;
+    }
+    try {
+      return new File(url.toURI()).getCanonicalFile();
+    } catch (URISyntaxException | IllegalArgumentException | IOException e) {
+      return null;
+    }
+  }
+
+  private static final class PooledJar {
+    // attributes of the file when opened
+    private final IndexCache.Key key;
+    private Constituent constituent;
+    private int references = 0;
+    private boolean released = false;
+
+    private PooledJar(IndexCache.Key key) {
+      this.key = key;
+    }
+
+    /**
+     * Returns null if the JAR file has been released or if it is declared by another URL
+     */
+    @CheckForNull
+    synchronized Constituent acquire(URL url, Callable<Constituent> opener) throws Exception {
+      if (released) {
+        return null;
+      }
+      if (constituent == null) {
+        constituent = opener.call();
+      } else if (!constituent.getURL().toString().equals(url.toString())) {
+        return null;
+      }
+      references++;
+      return constituent;
+    }
+
+    /**
+     * Returns true if the last reference has been released
+     */
+    synchronized boolean release() {
+      references--;
+      if (references > 0) {
+        return false;
+      }
+      released = true;
+      Constituent.closeQuietly(constituent);
+      return true;
+    }
+
+    synchronized boolean isReleased() {
+      return released;
+    }
+  }
+
+  /**
+   * Handle of a classloader on a shared constituent. Closing it releases the reference once.
+   */
+  private static final class SharedJarConstituent extends Constituent {
+    private final Constituent shared;
+    private final Runnable release;
+    private boolean closed = false;
+
+    private SharedJarConstituent(URL url, Constituent shared, Runnable release) {
+      super(url);
+      this.shared = shared;
+      this.release = release;
+    }
+
+    @CheckForNull
+    @Override
+    Set<String> getDirectories() {
+      return shared.getDirectories();
+    }
+
+    @CheckForNull
+    @Override
+    Entry findEntry(String name) throws IOException {
+      return shared.findEntry(name);
+    }
+
+    @Override
+    public synchronized void close() {
+      if (!closed) {
+        closed = true;
+        release.run();
+      }
+    }
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Concatenation of the resources of several sources, for example siblings, parent and self. A source
+ * is opened only when the resources of the previous sources are consumed, so that callers that need
+ * only the first resources do not walk the whole graph of classloaders.
+ */
+class LazyEnumeration<T> implements Enumeration<URL> {
+
+  private final Iterator<T> sources;
+  private final Function<T, Enumeration<URL>> opener;
+  private Enumeration<URL> current = Collections.emptyEnumeration();
+
+  LazyEnumeration(Iterator<T> sources, Function<T, Enumeration<URL>> opener) {
+    this.sources = sources;
+    this.opener = opener;
+  }
+
+  static Enumeration<URL> sequence(Supplier<Enumeration<URL>> first, Supplier<Enumeration<URL>> second, Supplier<Enumeration<URL>> third) {
+    return new LazyEnumeration<>(Arrays.asList(first, second, third).iterator(), Supplier::get);
+  }
+
+  @Override
+  public boolean hasMoreElements() {
+    while (!current.hasMoreElements()) {
+      if (!sources.hasNext()) {
+        return false;
+      }
+      current = opener.apply(sources.next());
+    }
+    return true;
+  }
+
+  @Override
+  public URL nextElement() {
+    if (!hasMoreElements()) {
+      throw new NoSuchElementException();
+    }
+    return current.nextElement();
+  }
+}
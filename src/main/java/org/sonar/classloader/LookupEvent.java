@@ -0,0 +1,140 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+/**
+ * Lookup of a class or of resources by a classloader, see {@link LookupListener}.
+ *
+ * @since 1.3
+ */
+public final class LookupEvent {
+
+  public enum Type {
+    /**
+     * {@link ClassLoader#loadClass(String)}
+     */
+    CLASS,
+
+    /**
+     * {@link ClassLoader#getResource(String)}
+     */
+    RESOURCE,
+
+    /**
+     * {@link ClassLoader#getResources(String)}
+     */
+    RESOURCES
+  }
+
+  public enum Source {
+    /**
+     * The base classloader given to {@link ClassloaderBuilder#newClassloader(String, ClassLoader)}, by default
+     * the system classloader. Only classes are searched in the base classloader before siblings, parent and self.
+     */
+    BASE,
+    SIBLING,
+    PARENT,
+    SELF,
+
+    /**
+     * The class was already loaded by the classloader, which is not the classloader that defined it. For example
+     * a class of a sibling of a sibling, loaded when linking a class of the classloader.
+     */
+    ALREADY_LOADED,
+    NOT_FOUND
+  }
+
+  private final ClassLoader classloader;
+  private final String key;
+  private final Type type;
+  private final String name;
+  private final Source source;
+  private final int siblingIndex;
+  private final int probedRefs;
+  private final long durationNanos;
+
+  LookupEvent(ClassLoader classloader, String key, Type type, String name, Source source, int siblingIndex, int probedRefs, long durationNanos) {
+    this.classloader = classloader;
+    this.key = key;
+    this.type = type;
+    this.name = name;
+    this.source = source;
+    this.siblingIndex = siblingIndex;
+    this.probedRefs = probedRefs;
+    this.durationNanos = durationNanos;
+  }
+
+  /**
+   * The classloader that received the lookup
+   */
+  public ClassLoader getClassloader() {
+    return classloader;
+  }
+
+  /**
+   * Key of the classloader that received the lookup, as declared by {@link ClassloaderBuilder#newClassloader(String)}
+   */
+  public String getKey() {
+    return key;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * Name of class, for example "org.foo.Bar", or name of resource, for example "org/foo/config.xml"
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Where the class or resource has been found. For {@link Type#RESOURCES}, where the first resource has been found.
+   */
+  public Source getSource() {
+    return source;
+  }
+
+  /**
+   * Index of the sibling that provided the class or resource, in the order of declaration of siblings.
+   * Returns -1 if {@link #getSource()} is not {@link Source#SIBLING}.
+   */
+  public int getSiblingIndex() {
+    return siblingIndex;
+  }
+
+  /**
+   * Number of siblings and parent that have been called during the lookup
+   */
+  public int getProbedRefs() {
+    return probedRefs;
+  }
+
+  public long getDurationNanos() {
+    return durationNanos;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("LookupEvent{%s %s %s in %s from %s%s, %d refs probed, %d ns}", key, type, name, classloader, source,
+      siblingIndex < 0 ? "" : (" " + siblingIndex), probedRefs, durationNanos);
+  }
+}
@@ -0,0 +1,37 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+/**
+ * Receives the lookups of classes and resources by the classloaders created by {@link ClassloaderBuilder},
+ * for example to measure where class loading time goes. Register it with
+ * {@link ClassloaderBuilder#setLookupListener(String, LookupListener)}.
+ * <p/>
+ * The listener is called synchronously by the thread that looks up the class or resource, once the lookup
+ * is completed, including when the class or resource is not found. It must be fast, thread-safe and must not
+ * throw exceptions. Lookups of names rejected by the mask of the classloader are not notified.
+ *
+ * @since 1.3
+ */
+public interface LookupListener {
+
+  void onLookup(LookupEvent event);
+
+}
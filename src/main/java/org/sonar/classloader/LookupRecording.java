@@ -0,0 +1,52 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import javax.annotation.CheckForNull;
+
+/**
+ * Recording of a lookup as a JDK Flight Recorder event. The module jdk.jfr is optional, for example in the runtime
+ * images created by jlink, so {@link ClassRealmLookupEvent} and the classes of jdk.jfr are loaded only when the
+ * module is present. Lookups are never recorded otherwise.
+ */
+interface LookupRecording {
+
+  boolean JFR_AVAILABLE = ModuleLayer.boot().findModule("jdk.jfr").isPresent();
+
+  /**
+   * Ends the recording and commits the event if it matches the settings of the running recordings
+   */
+  void end(String realm, LookupEvent.Type type, String name, LookupEvent.Source source, int siblingIndex, int probedRefs);
+
+  /**
+   * Whether a recording is running with {@link ClassRealmLookupEvent} enabled
+   */
+  static boolean isRecording() {
+    return JFR_AVAILABLE && ClassRealmLookupEvent.isRecording();
+  }
+
+  /**
+   * Starts the recording of a lookup, or returns null if lookups are not recorded
+   */
+  @CheckForNull
+  static LookupRecording begin() {
+    return isRecording() ? ClassRealmLookupEvent.beginLookup() : null;
+  }
+}
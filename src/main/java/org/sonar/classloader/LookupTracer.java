@@ -0,0 +1,276 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.NoSuchElementException;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+/**
+ * Context of a single lookup by a {@link ClassRealm} that records which sibling, parent or self
+ * provides the class or resource, and how many references are probed. Used only when a
+ * {@link LookupListener} is registered or when lookups are recorded by JFR, see {@link LookupRecording}.
+ */
+class LookupTracer implements StrategyContext {
+
+  private final ClassRealm realm;
+  @Nullable
+  private final LookupListener listener;
+  @Nullable
+  private final LookupRecording recording;
+  private final long startNanos;
+  private final List<ClassloaderRef> siblings;
+  private final boolean parent;
+  private final boolean self;
+
+  private LookupEvent.Source source = LookupEvent.Source.NOT_FOUND;
+  @Nullable
+  private ClassloaderRef sibling = null;
+  private int probedRefs = 0;
+
+  LookupTracer(ClassRealm realm, @Nullable LookupListener listener, List<ClassloaderRef> siblings, boolean parent, boolean self) {
+    this.realm = realm;
+    this.listener = listener;
+    this.siblings = siblings;
+    this.parent = parent;
+    this.self = self;
+    this.recording = LookupRecording.begin();
+    this.startNanos = System.nanoTime();
+  }
+
+  void foundInBase() {
+    source = LookupEvent.Source.BASE;
+  }
+
+  /**
+   * The class was already loaded by the realm. It is attributed to the classloader that defined it, if it is
+   * the realm, its base classloader or one of its direct siblings and parent.
+   */
+  void foundLoaded(Class clazz) {
+    ClassLoader definingLoader = clazz.getClassLoader();
+    if (definingLoader == realm) {
+      found(LookupEvent.Source.SELF, null);
+      return;
+    }
+    for (ClassloaderRef ref : realm.getSiblingRefs()) {
+      if (definedBy(ref, definingLoader)) {
+        found(LookupEvent.Source.SIBLING, ref);
+        return;
+      }
+    }
+    if (definedBy(realm.getParentRef(), definingLoader)) {
+      found(LookupEvent.Source.PARENT, null);
+    } else if (isBaseOrAncestor(definingLoader)) {
+      found(LookupEvent.Source.BASE, null);
+    } else {
+      found(LookupEvent.Source.ALREADY_LOADED, null);
+    }
+  }
+
+  private static boolean definedBy(ClassloaderRef ref, @Nullable ClassLoader definingLoader) {
+    return ref instanceof DefaultClassloaderRef && ((DefaultClassloaderRef) ref).getClassloader() == definingLoader;
+  }
+
+  private boolean isBaseOrAncestor(@Nullable ClassLoader definingLoader) {
+    if (definingLoader == null) {
+      // bootstrap classloader
+      return true;
+    }
+    for (ClassLoader loader = realm.getParent(); loader != null; loader = loader.getParent()) {
+      if (loader == definingLoader) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Notifies the listener and records the JFR event, if any
+   */
+  void end(LookupEvent.Type type, String name) {
+    long duration = System.nanoTime() - startNanos;
+    int siblingIndex = sibling == null ? -1 : realm.getSiblingRefs().indexOf(sibling);
+    if (recording != null) {
+      recording.end(realm.getKey(), type, name, source, siblingIndex, probedRefs);
+    }
+    if (listener != null) {
+      listener.onLookup(new LookupEvent(realm, realm.getKey(), type, name, source, siblingIndex, probedRefs, duration));
+    }
+  }
+
+  private void found(LookupEvent.Source foundIn, @Nullable ClassloaderRef foundInSibling) {
+    if (source == LookupEvent.Source.NOT_FOUND) {
+      source = foundIn;
+      sibling = foundInSibling;
+    }
+  }
+
+  @CheckForNull
+  @Override
+  public Class loadClassFromSiblings(String name, VisitedRealms visited) {
+    for (ClassloaderRef ref : siblings) {
+      probedRefs++;
+      Class clazz = ref.loadClassIfPresent(name, visited);
+      if (clazz != null) {
+        found(LookupEvent.Source.SIBLING, ref);
+        return clazz;
+      }
+    }
+    return null;
+  }
+
+  @CheckForNull
+  @Override
+  public Class loadClassFromSelf(String name, VisitedRealms visited) {
+    Class clazz = self ? realm.loadClassFromSelf(name, visited) : null;
+    if (clazz != null) {
+      found(LookupEvent.Source.SELF, null);
+    }
+    return clazz;
+  }
+
+  @CheckForNull
+  @Override
+  public Class loadClassFromParent(String name, VisitedRealms visited) {
+    if (!parent) {
+      return null;
+    }
+    probedRefs++;
+    Class clazz = realm.loadClassFromParent(name, visited);
+    if (clazz != null) {
+      found(LookupEvent.Source.PARENT, null);
+    }
+    return clazz;
+  }
+
+  @CheckForNull
+  @Override
+  public URL loadResourceFromSiblings(String name, VisitedRealms visited) {
+    for (ClassloaderRef ref : siblings) {
+      probedRefs++;
+      URL url = ref.loadResourceIfPresent(name, visited);
+      if (url != null) {
+        found(LookupEvent.Source.SIBLING, ref);
+        return url;
+      }
+    }
+    return null;
+  }
+
+  @CheckForNull
+  @Override
+  public URL loadResourceFromSelf(String name, VisitedRealms visited) {
+    URL url = self ? realm.loadResourceFromSelf(name, visited) : null;
+    if (url != null) {
+      found(LookupEvent.Source.SELF, null);
+    }
+    return url;
+  }
+
+  @CheckForNull
+  @Override
+  public URL loadResourceFromParent(String name, VisitedRealms visited) {
+    if (!parent) {
+      return null;
+    }
+    probedRefs++;
+    URL url = realm.loadResourceFromParent(name, visited);
+    if (url != null) {
+      found(LookupEvent.Source.PARENT, null);
+    }
+    return url;
+  }
+
+  @Override
+  public Enumeration<URL> loadResourcesFromSiblings(String name, VisitedRealms visited) {
+    return new LazyEnumeration<>(siblings.iterator(), ref -> {
+      probedRefs++;
+      return found(ref.loadResources(name, visited), LookupEvent.Source.SIBLING, ref);
+    });
+  }
+
+  @Override
+  public Enumeration<URL> loadResourcesFromSelf(String name, VisitedRealms visited) {
+    if (!self) {
+      return Collections.emptyEnumeration();
+    }
+    return found(realm.loadResourcesFromSelf(name, visited), LookupEvent.Source.SELF, null);
+  }
+
+  @Override
+  public Enumeration<URL> loadResourcesFromParent(String name, VisitedRealms visited) {
+    if (!parent) {
+      return Collections.emptyEnumeration();
+    }
+    probedRefs++;
+    return found(realm.loadResourcesFromParent(name, visited), LookupEvent.Source.PARENT, null);
+  }
+
+  /**
+   * Ends the lookup of resources when the enumeration is exhausted or fails. The duration includes the time
+   * spent by the caller between two elements. Enumerations that are not exhausted are not reported.
+   */
+  Enumeration<URL> endWhenConsumed(Enumeration<URL> urls, String name) {
+    return new Enumeration<URL>() {
+      private boolean ended = false;
+
+      @Override
+      public boolean hasMoreElements() {
+        boolean more;
+        try {
+          more = urls.hasMoreElements();
+        } catch (RuntimeException e) {
+          endOnce();
+          throw e;
+        }
+        if (!more) {
+          endOnce();
+        }
+        return more;
+      }
+
+      @Override
+      public URL nextElement() {
+        if (!hasMoreElements()) {
+          throw new NoSuchElementException();
+        }
+        return urls.nextElement();
+      }
+
+      private void endOnce() {
+        if (!ended) {
+          ended = true;
+          end(LookupEvent.Type.RESOURCES, name);
+        }
+      }
+    };
+  }
+
+  private Enumeration<URL> found(Enumeration<URL> urls, LookupEvent.Source foundIn, @Nullable ClassloaderRef foundInSibling) {
+    if (urls.hasMoreElements()) {
+      found(foundIn, foundInSibling);
+    }
+    return urls;
+  }
+}
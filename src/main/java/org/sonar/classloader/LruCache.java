@@ -0,0 +1,126 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.CheckForNull;
+
+/**
+ * Bounded map that evicts entries that have not been used recently. Thread-safe. Reads do not take locks, so
+ * that concurrent lookups of classloaders do not contend on the cache.
+ * <p/>
+ * The least recently used entries are approximated with the CLOCK algorithm: reads mark the entries as used,
+ * and eviction iterates over the entries in order of insertion, removing the entries that are not marked and
+ * unmarking the others. The size may exceed the maximum while other threads are evicting.
+ */
+class LruCache<K, V> {
+
+  private final int maxSize;
+  private final ConcurrentHashMap<K, Node<V>> map;
+
+  // keys in order of insertion, then of second chance
+  private final Queue<K> clock = new ConcurrentLinkedQueue<>();
+  private final ReentrantLock evictionLock = new ReentrantLock();
+
+  LruCache(final int maxSize) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("Max size of cache must be positive: " + maxSize);
+    }
+    this.maxSize = maxSize;
+    this.map = new ConcurrentHashMap<>(Math.min(maxSize, 64));
+  }
+
+  @CheckForNull
+  V get(K key) {
+    Node<V> node = map.get(key);
+    if (node == null) {
+      return null;
+    }
+    if (!node.used) {
+      // avoid writing to memory shared by other cores when already marked
+      node.used = true;
+    }
+    return node.value;
+  }
+
+  void put(K key, V value) {
+    if (map.put(key, new Node<>(value)) == null) {
+      clock.offer(key);
+      if (map.size() > maxSize) {
+        evict();
+      }
+    }
+  }
+
+  private void evict() {
+    if (!evictionLock.tryLock()) {
+      // another thread is evicting
+      return;
+    }
+    try {
+      if (clock.isEmpty()) {
+        // keys inserted concurrently with clear()
+        clock.addAll(map.keySet());
+      }
+      K key;
+      while (map.size() > maxSize && (key = clock.poll()) != null) {
+        Node<V> node = map.get(key);
+        if (node != null && node.used) {
+          node.used = false;
+          clock.offer(key);
+        } else if (node != null) {
+          map.remove(key, node);
+        }
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  void clear() {
+    evictionLock.lock();
+    try {
+      map.clear();
+      clock.clear();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  int size() {
+    return map.size();
+  }
+
+  int getMaxSize() {
+    return maxSize;
+  }
+
+  private static final class Node<V> {
+    private final V value;
+    private volatile boolean used = false;
+
+    private Node(V value) {
+      this.value = value;
+    }
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipException;
+import javax.annotation.CheckForNull;
+
+/**
+ * JAR file located on the local filesystem and mapped in memory. The central directory is parsed
+ * once when the realm is built. Stored entries are read directly from the mapped bytes, without
+ * heap copies nor native buffers of {@link java.util.zip.Inflater}.
+ * <p/>
+ * Signed JAR files are not supported, see {@link #map(URL, File)}. JAR files nested in another JAR file
+ * are read from the mapping of the outer file, see {@link #readNested(URL, File, String)}.
+ */
+class MappedJarConstituent extends Constituent {
+
+  private final ZipDirectory zip;
+  @CheckForNull
+  private final Manifest manifest;
+  private final String baseUrl;
+  private volatile boolean closed = false;
+
+  private MappedJarConstituent(URL url, ZipDirectory zip, @CheckForNull Manifest manifest) {
+    super(url);
+    this.zip = zip;
+    this.manifest = manifest;
+    this.baseUrl = "jar:" + url + "!/";
+  }
+
+  /**
+   * Maps the JAR file in memory. Returns null if the file can not be mapped or if it must be read with
+   * {@link JarFile}, for example when it is signed.
+   */
+  @CheckForNull
+  static MappedJarConstituent map(URL url, File file) throws IOException {
+    ZipDirectory zip;
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        return null;
+      }
+      MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      zip = ZipDirectory.parse(bytes);
+    }
+    if (zip.isSigned()) {
+      return null;
+    }
+    return new MappedJarConstituent(url, zip, readManifest(zip));
+  }
+
+  /**
+   * Reads a JAR file nested in another JAR file, for example "META-INF/lib/foo.jar". A stored entry is read
+   * from the mapping of the outer JAR file without copies. A deflated entry is inflated into the heap.
+   * Signatures of the nested JAR file are not verified.
+   *
+   * @return the constituent, or null if the outer JAR file does not contain the entry
+   */
+  @CheckForNull
+  static MappedJarConstituent readNested(URL url, File outerFile, String entryName) throws IOException {
+    ByteBuffer bytes = readEntry(outerFile, entryName);
+    return bytes == null ? null : read(url, bytes);
+  }
+
+  /**
+   * Reads a JAR file that is already in memory, between the position and the limit of the buffer.
+   * Signatures are not verified.
+   */
+  static MappedJarConstituent read(URL url, ByteBuffer bytes) throws IOException {
+    ZipDirectory zip = ZipDirectory.parse(bytes.slice());
+    return new MappedJarConstituent(url, zip, readManifest(zip));
+  }
+
+  @CheckForNull
+  private static ByteBuffer readEntry(File zipFile, String entryName) throws IOException {
+    try (FileChannel channel = FileChannel.open(zipFile.toPath(), StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size <= Integer.MAX_VALUE) {
+        ZipDirectory outer = ZipDirectory.parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        int entry = outer.find(entryName);
+        return entry < 0 ? null : outer.read(entry);
+      }
+    } catch (ZipException e) {
+      // for example ZIP64 archive, read below by JarFile
+    }
+    try (JarFile jarFile = new JarFile(zipFile, false)) {
+      JarEntry entry = jarFile.getJarEntry(entryName);
+      return entry == null ? null : ByteBuffer.wrap(readFully(jarFile.getInputStream(entry), entry.getSize()));
+    }
+  }
+
+  @CheckForNull
+  private static Manifest readManifest(ZipDirectory zip) throws IOException {
+    int manifestEntry = zip.find(JarFile.MANIFEST_NAME);
+    if (manifestEntry < 0) {
+      return null;
+    }
+    ByteBuffer bytes = zip.read(manifestEntry);
+    byte[] array = new byte[bytes.remaining()];
+    bytes.get(array);
+    return new Manifest(new ByteArrayInputStream(array));
+  }
+
+  @CheckForNull
+  Manifest getManifest() {
+    return manifest;
+  }
+
+  @Override
+  Set<String> getDirectories() {
+    return zip.getDirectories();
+  }
+
+  @CheckForNull
+  @Override
+  Entry findEntry(String name) throws IOException {
+    if (closed) {
+      throw new IOException("Constituent is closed: " + getURL());
+    }
+    final int offset = zip.find(name);
+    if (offset < 0) {
+      return null;
+    }
+    EntryURLStreamHandler.Source source = new EntryURLStreamHandler.Source() {
+      @Override
+      public ByteBuffer read() throws IOException {
+        if (closed) {
+          throw new IOException("Constituent is closed: " + getURL());
+        }
+        return zip.read(offset);
+      }
+
+      @Override
+      public long length() {
+        return zip.getSize(offset);
+      }
+    };
+    return new SourceEntry(EntryURLStreamHandler.newURL(baseUrl + encodePath(name), source), source, manifest);
+  }
+
+  @Override
+  public void close() {
+    // Lookups fail from now on. The mapping is not released explicitly, as buffers of stored entries may still be read,
+    // for example by the streams of resource URLs, and reading an unmapped buffer crashes the JVM. It is released
+    // by the garbage collector once the buffers are no longer referenced.
+    closed = true;
+  }
+
+  /**
+   * Entry whose content is provided by a {@link EntryURLStreamHandler.Source}
+   */
+  static class SourceEntry extends Entry {
+    private final EntryURLStreamHandler.Source source;
+    @CheckForNull
+    private final Manifest manifest;
+
+    SourceEntry(URL url, EntryURLStreamHandler.Source source, @CheckForNull Manifest manifest) {
+      super(url);
+      this.source = source;
+      this.manifest = manifest;
+    }
+
+    @Override
+    ByteBuffer getBytes() throws IOException {
+      return source.read();
+    }
+
+    @CheckForNull
+    @Override
+    Manifest getManifest() {
+      return manifest;
+    }
+  }
+}
@@ -56,9 +56,15 @@ public class Mask {
   private final Set<String> inclusions;
   private final Set<String> exclusions;
 
+  // patterns compiled for fast matching
+  private final PathTrie inclusionTrie;
+  private final PathTrie exclusionTrie;
+
   private Mask(Builder builder) {
-    this.inclusions = Collections.unmodifiableSet(builder.inclusions);
-    this.exclusions = Collections.unmodifiableSet(builder.exclusions);
+    this.inclusions = Collections.unmodifiableSet(new HashSet<>(builder.inclusions));
+    this.exclusions = Collections.unmodifiableSet(new HashSet<>(builder.exclusions));
+    this.inclusionTrie = PathTrie.compile(inclusions);
+    this.exclusionTrie = PathTrie.compile(exclusions);
   }
 
   /**
@@ -82,40 +88,26 @@ public class Mask {
     if (inclusions.isEmpty() && exclusions.isEmpty()) {
       return true;
     }
-    return acceptResource(classToResource(classname));
+    return (inclusions.isEmpty() || inclusionTrie.matchesClass(classname)) && !exclusionTrie.matchesClass(classname);
   }
 
   boolean acceptResource(String name) {
-    boolean ok = true;
-    if (!inclusions.isEmpty()) {
-      ok = false;
-      for (String include : inclusions) {
-        if (matchPattern(name, include)) {
-          ok = true;
-          break;
-        }
-      }
-    }
-    if (ok) {
-      for (String exclude : exclusions) {
-        if (matchPattern(name, exclude)) {
-          ok = false;
-          break;
-        }
-      }
-    }
-    return ok;
+    return (inclusions.isEmpty() || inclusionTrie.matches(name)) && !exclusionTrie.matches(name);
   }
 
-  private static boolean matchPattern(String name, String pattern) {
-    return pattern.equals(ROOT) || (pattern.endsWith("/") && name.startsWith(pattern)) || pattern.equals(name);
-  }
 
-  private static String classToResource(String classname) {
-    return classname.replace('.', '/') + ".class";
+  /**
+   * Whether the mask may accept some of the resources of a directory, for example "org/foo" or "" for
+   * the root directory. Returns false only if all the resources of the directory are rejected.
+   */
+  boolean mayAcceptDirectory(String directory) {
+    String prefix = directory.isEmpty() ? "" : (directory + "/");
+    if (!inclusions.isEmpty() && !inclusionTrie.mayMatchUnder(prefix)) {
+      return false;
+    }
+    return !exclusionTrie.matchesAllUnder(prefix);
   }
 
-
   public static class Builder {
     private final Set<String> inclusions = new HashSet<>();
     private final Set<String> exclusions = new HashSet<>();
@@ -0,0 +1,102 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.CheckForNull;
+
+/**
+ * Classes and resources held in memory, for example generated at runtime. See
+ * {@link ClassloaderBuilder#addResources(String, Map)}. The buffers are not copied, classes are
+ * defined from their content.
+ */
+class MemoryConstituent extends Constituent {
+
+  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+  private final Map<String, ByteBuffer> resources;
+  private final Set<String> directories;
+  private final String baseUrl;
+
+  MemoryConstituent(URL url, Map<String, ByteBuffer> resources) {
+    super(url);
+    this.resources = new HashMap<>(resources);
+    Set<String> result = new HashSet<>();
+    for (String name : resources.keySet()) {
+      result.add(directoryOf(name));
+    }
+    this.directories = Collections.unmodifiableSet(result);
+    this.baseUrl = url.toString();
+  }
+
+  /**
+   * Location of the resources held in memory, for example "memory:/the-key/0/". It is not
+   * resolved by the JDK.
+   */
+  static URL newLocation(String spec) throws MalformedURLException {
+    return EntryURLStreamHandler.newURL(spec, source(EMPTY));
+  }
+
+  /**
+   * Location of a JAR file held in memory, for example "memory:/the-key/1.jar". Opening the URL
+   * returns the content of the JAR file.
+   */
+  static URL newJarLocation(String spec, ByteBuffer jar) throws MalformedURLException {
+    return EntryURLStreamHandler.newURL(spec, source(jar));
+  }
+
+  private static EntryURLStreamHandler.Source source(final ByteBuffer bytes) {
+    return new EntryURLStreamHandler.Source() {
+      @Override
+      public ByteBuffer read() {
+        // each reader has its own position
+        return bytes.duplicate();
+      }
+
+      @Override
+      public long length() {
+        return bytes.remaining();
+      }
+    };
+  }
+
+  @Override
+  Set<String> getDirectories() {
+    return directories;
+  }
+
+  @CheckForNull
+  @Override
+  Entry findEntry(String name) throws MalformedURLException {
+    ByteBuffer bytes = resources.get(name);
+    if (bytes == null) {
+      return null;
+    }
+    EntryURLStreamHandler.Source source = source(bytes);
+    return new MappedJarConstituent.SourceEntry(EntryURLStreamHandler.newURL(baseUrl + encodePath(name), source), source, null);
+  }
+}
@@ -20,7 +20,8 @@
 package org.sonar.classloader;
 
 import java.net.URL;
-import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
 
 public class NullClassloaderRef implements ClassloaderRef {
 
@@ -30,17 +31,22 @@ public class NullClassloaderRef implements ClassloaderRef {
   }
 
   @Override
-  public Class loadClassIfPresent(String classname) {
+  public Class loadClassIfPresent(String classname, VisitedRealms visited) {
     return null;
   }
 
   @Override
-  public URL loadResourceIfPresent(String name) {
+  public URL loadResourceIfPresent(String name, VisitedRealms visited) {
     return null;
   }
 
   @Override
-  public void loadResources(String name, Collection<URL> appendTo) {
+  public Enumeration<URL> loadResources(String name, VisitedRealms visited) {
+    return Collections.emptyEnumeration();
+  }
+
+  @Override
+  public void invalidateCaches() {
     // do nothing
   }
 }
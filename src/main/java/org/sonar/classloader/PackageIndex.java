@@ -0,0 +1,93 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.CheckForNull;
+
+/**
+ * Constituents of a {@link ClassRealm} grouped by the directories they contain, so that
+ * a lookup tries only the constituents that may contain the requested name. The order
+ * of declaration of constituents is kept.
+ */
+class PackageIndex {
+
+  private static final Constituent[] NO_CONSTITUENTS = new Constituent[0];
+
+  static final PackageIndex EMPTY = new PackageIndex(new ArrayList<Constituent>());
+
+  private final List<Constituent> constituents;
+  private final Map<String, Constituent[]> byDirectory = new HashMap<>();
+
+  // constituents that can not be indexed and that must be tried for all the names
+  private final Constituent[] unindexed;
+
+  PackageIndex(List<Constituent> constituents) {
+    this.constituents = constituents;
+    List<Constituent> unindexedList = new ArrayList<>();
+    Set<String> directories = new HashSet<>();
+    for (Constituent constituent : constituents) {
+      Set<String> constituentDirectories = constituent.getDirectories();
+      if (constituentDirectories == null) {
+        unindexedList.add(constituent);
+      } else {
+        directories.addAll(constituentDirectories);
+      }
+    }
+    this.unindexed = unindexedList.toArray(NO_CONSTITUENTS);
+
+    for (String directory : directories) {
+      List<Constituent> candidates = new ArrayList<>();
+      for (Constituent constituent : constituents) {
+        Set<String> constituentDirectories = constituent.getDirectories();
+        if (constituentDirectories == null || constituentDirectories.contains(directory)) {
+          candidates.add(constituent);
+        }
+      }
+      byDirectory.put(directory, candidates.toArray(NO_CONSTITUENTS));
+    }
+  }
+
+  List<Constituent> getConstituents() {
+    return constituents;
+  }
+
+  /**
+   * Directories of all the constituents, or null if some constituents can not be indexed
+   */
+  @CheckForNull
+  Set<String> getDirectories() {
+    return unindexed.length > 0 ? null : byDirectory.keySet();
+  }
+
+  /**
+   * Constituents that may contain the resource, in order of declaration
+   * @param name name of resource, for example "org/foo/Bar.class" or "org/foo/config.xml"
+   */
+  Constituent[] lookup(String name) {
+    Constituent[] candidates = byDirectory.get(Constituent.directoryOf(name));
+    return candidates == null ? unindexed : candidates;
+  }
+}
@@ -0,0 +1,330 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+/**
+ * Routing table of a {@link ClassRealm}, computed when the graph of classloaders is built. For each
+ * directory (or package), a route lists the siblings, parent and self that may provide its resources
+ * (or classes), given the content of constituents and the masks of the relations. Lookups follow the
+ * route instead of probing all the relations. Names of unknown directories follow the complete
+ * traversal.
+ */
+class PackageRoutes {
+
+  // marker of the realms that may provide any resource
+  private static final Set<String> UNKNOWN = new HashSet<>();
+
+  private final Map<String, Route> byDirectory;
+  private final Map<String, Route> byPackage;
+
+  private PackageRoutes(Map<String, Route> byDirectory, Map<String, Route> byPackage) {
+    this.byDirectory = byDirectory;
+    this.byPackage = byPackage;
+  }
+
+  /**
+   * @return the route of the class, or null if the package is unknown
+   */
+  @CheckForNull
+  Route forClass(String classname) {
+    int lastDot = classname.lastIndexOf('.');
+    return byPackage.get(lastDot < 0 ? "" : classname.substring(0, lastDot));
+  }
+
+  /**
+   * @return the route of the resource, or null if the directory is unknown
+   */
+  @CheckForNull
+  Route forResource(String name) {
+    return byDirectory.get(Constituent.directoryOf(name));
+  }
+
+  int size() {
+    return byDirectory.size();
+  }
+
+  /**
+   * Computes the routes of the given realms. The realms reachable through their parents and siblings must be indexed.
+   * Routes are not computed for the realms based on a classloader that does not delegate to {@code systemClassloader},
+   * as the other realms of the graph could then provide some of the classes of the JRE.
+   */
+  static void compute(Collection<ClassRealm> realms, ClassLoader systemClassloader) {
+    Map<ClassRealm, Set<String>> provided = provided(realms, systemClassloader);
+    for (ClassRealm realm : realms) {
+      if (delegatesTo(realm.getParent(), systemClassloader)) {
+        realm.setRoutes(create(realm, provided));
+      }
+    }
+  }
+
+  private static PackageRoutes create(ClassRealm realm, Map<ClassRealm, Set<String>> provided) {
+    List<ClassloaderRef> siblingRefs = realm.getSiblingRefs();
+    ClassloaderRef parentRef = realm.getParentRef();
+    Set<String> selfDirectories = realm.getIndex().getDirectories();
+
+    Set<String> directories = new HashSet<>();
+    addKnown(directories, selfDirectories);
+    for (ClassloaderRef ref : siblingRefs) {
+      addKnown(directories, providedThrough(ref, provided));
+    }
+    addKnown(directories, providedThrough(parentRef, provided));
+
+    Map<List<Object>, Route> distinctRoutes = new HashMap<>();
+    Map<String, Route> byDirectory = new HashMap<>();
+    Map<String, Route> byPackage = new HashMap<>();
+    for (String directory : directories) {
+      List<ClassloaderRef> siblings = new ArrayList<>();
+      for (ClassloaderRef ref : siblingRefs) {
+        if (mayProvide(ref, directory, provided)) {
+          siblings.add(ref);
+        }
+      }
+      boolean parent = mayProvide(parentRef, directory, provided);
+      boolean self = selfDirectories == null || selfDirectories.contains(directory);
+
+      List<Object> signature = new ArrayList<Object>(siblings);
+      signature.add(parent);
+      signature.add(self);
+      Route route = distinctRoutes.get(signature);
+      if (route == null) {
+        route = new Route(realm, siblings.toArray(new ClassloaderRef[siblings.size()]), parent, self);
+        distinctRoutes.put(signature, route);
+      }
+      byDirectory.put(directory, route);
+      if (directory.indexOf('.') < 0) {
+        byPackage.put(directory.replace('/', '.'), route);
+      }
+    }
+    return new PackageRoutes(byDirectory, byPackage);
+  }
+
+  private static void addKnown(Set<String> directories, @Nullable Set<String> toAdd) {
+    if (toAdd != null && toAdd != UNKNOWN) {
+      directories.addAll(toAdd);
+    }
+  }
+
+  /**
+   * Directories provided through a reference to parent or sibling, or null if no references
+   */
+  @CheckForNull
+  private static Set<String> providedThrough(ClassloaderRef ref, Map<ClassRealm, Set<String>> provided) {
+    if (ref instanceof DefaultClassloaderRef) {
+      ClassLoader classloader = ((DefaultClassloaderRef) ref).getClassloader();
+      Set<String> directories = provided.get(classloader);
+      return directories == null ? UNKNOWN : directories;
+    }
+    return null;
+  }
+
+  private static boolean mayProvide(ClassloaderRef ref, String directory, Map<ClassRealm, Set<String>> provided) {
+    Set<String> directories = providedThrough(ref, provided);
+    if (directories == null) {
+      return false;
+    }
+    DefaultClassloaderRef defaultRef = (DefaultClassloaderRef) ref;
+    if (!defaultRef.getMask().mayAcceptDirectory(directory)) {
+      return false;
+    }
+    ClassLoader target = defaultRef.getClassloader();
+    if (target instanceof ClassRealm && !((ClassRealm) target).getMask().mayAcceptDirectory(directory)) {
+      return false;
+    }
+    return directories == UNKNOWN || directories.contains(directory);
+  }
+
+  /**
+   * Directories that each realm reachable from the given realms may provide to the
+   * classloaders referencing it, through its constituents, siblings and parent.
+   */
+  private static Map<ClassRealm, Set<String>> provided(Collection<ClassRealm> realms, ClassLoader systemClassloader) {
+    Map<ClassRealm, Set<String>> provided = new IdentityHashMap<>();
+    Deque<ClassRealm> toVisit = new ArrayDeque<>(realms);
+    while (!toVisit.isEmpty()) {
+      ClassRealm realm = toVisit.pop();
+      if (!provided.containsKey(realm)) {
+        Set<String> selfDirectories = realm.getIndex().getDirectories();
+        // the base classloader of the realm could provide classes that are not in the base classloader of the requester
+        boolean known = selfDirectories != null && realm.getParent() == systemClassloader;
+        provided.put(realm, known ? new HashSet<>(selfDirectories) : UNKNOWN);
+        for (ClassloaderRef ref : refs(realm)) {
+          ClassLoader target = ((DefaultClassloaderRef) ref).getClassloader();
+          if (target instanceof ClassRealm) {
+            toVisit.push((ClassRealm) target);
+          }
+        }
+      }
+    }
+
+    // propagate until stable, as graph may contain cycles
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (Map.Entry<ClassRealm, Set<String>> entry : provided.entrySet()) {
+        if (entry.getValue() != UNKNOWN) {
+          changed |= propagate(entry, provided);
+        }
+      }
+    }
+    return provided;
+  }
+
+  private static boolean propagate(Map.Entry<ClassRealm, Set<String>> entry, Map<ClassRealm, Set<String>> provided) {
+    boolean changed = false;
+    Set<String> directories = entry.getValue();
+    for (ClassloaderRef ref : refs(entry.getKey())) {
+      Set<String> targetDirectories = providedThrough(ref, provided);
+      if (targetDirectories == UNKNOWN) {
+        entry.setValue(UNKNOWN);
+        return true;
+      }
+      for (String directory : targetDirectories) {
+        if (!directories.contains(directory) && mayProvide(ref, directory, provided)) {
+          directories.add(directory);
+          changed = true;
+        }
+      }
+    }
+    return changed;
+  }
+
+  private static List<ClassloaderRef> refs(ClassRealm realm) {
+    List<ClassloaderRef> refs = new ArrayList<>();
+    for (ClassloaderRef ref : realm.getSiblingRefs()) {
+      refs.add(ref);
+    }
+    if (realm.getParentRef() instanceof DefaultClassloaderRef) {
+      refs.add(realm.getParentRef());
+    }
+    return refs;
+  }
+
+  private static boolean delegatesTo(@Nullable ClassLoader classloader, ClassLoader ancestor) {
+    for (ClassLoader cl = classloader; cl != null; cl = cl.getParent()) {
+      if (cl == ancestor) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Subset of the relations of a realm that may provide the resources of a directory
+   */
+  static class Route implements StrategyContext {
+    private final ClassRealm realm;
+    private final ClassloaderRef[] siblings;
+    private final boolean parent;
+    private final boolean self;
+
+    private Route(ClassRealm realm, ClassloaderRef[] siblings, boolean parent, boolean self) {
+      this.realm = realm;
+      this.siblings = siblings;
+      this.parent = parent;
+      this.self = self;
+    }
+
+    List<ClassloaderRef> getSiblings() {
+      return Arrays.asList(siblings);
+    }
+
+    boolean hasParent() {
+      return parent;
+    }
+
+    boolean hasSelf() {
+      return self;
+    }
+
+    @Override
+    public Class loadClassFromSiblings(String name, VisitedRealms visited) {
+      for (ClassloaderRef sibling : siblings) {
+        Class clazz = sibling.loadClassIfPresent(name, visited);
+        if (clazz != null) {
+          return clazz;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public Class loadClassFromSelf(String name, VisitedRealms visited) {
+      return self ? realm.loadClassFromSelf(name, visited) : null;
+    }
+
+    @Override
+    public Class loadClassFromParent(String name, VisitedRealms visited) {
+      return parent ? realm.loadClassFromParent(name, visited) : null;
+    }
+
+    @Override
+    public URL loadResourceFromSiblings(String name, VisitedRealms visited) {
+      for (ClassloaderRef sibling : siblings) {
+        URL url = sibling.loadResourceIfPresent(name, visited);
+        if (url != null) {
+          return url;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public URL loadResourceFromSelf(String name, VisitedRealms visited) {
+      return self ? realm.loadResourceFromSelf(name, visited) : null;
+    }
+
+    @Override
+    public URL loadResourceFromParent(String name, VisitedRealms visited) {
+      return parent ? realm.loadResourceFromParent(name, visited) : null;
+    }
+
+    @Override
+    public Enumeration<URL> loadResourcesFromSiblings(String name, VisitedRealms visited) {
+      return new LazyEnumeration<>(Arrays.asList(siblings).iterator(), sibling -> sibling.loadResources(name, visited));
+    }
+
+    @Override
+    public Enumeration<URL> loadResourcesFromSelf(String name, VisitedRealms visited) {
+      return self ? realm.loadResourcesFromSelf(name, visited) : Collections.<URL>emptyEnumeration();
+    }
+
+    @Override
+    public Enumeration<URL> loadResourcesFromParent(String name, VisitedRealms visited) {
+      return parent ? realm.loadResourcesFromParent(name, visited) : Collections.<URL>emptyEnumeration();
+    }
+  }
+}
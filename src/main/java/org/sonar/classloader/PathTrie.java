@@ -0,0 +1,182 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.annotation.CheckForNull;
+
+/**
+ * Set of {@link Mask} patterns compiled into a character trie. Matching a name costs
+ * at most one step per character of the name, whatever the number of patterns.
+ */
+class PathTrie {
+
+  private static final String ROOT = "/";
+  private static final String CLASS_SUFFIX = ".class";
+  private static final char[] NO_KEYS = new char[0];
+  private static final Node[] NO_CHILDREN = new Node[0];
+
+  private final Node root;
+
+  // pattern "/" matches everything
+  private final boolean matchAll;
+
+  private PathTrie(Node root, boolean matchAll) {
+    this.root = root;
+    this.matchAll = matchAll;
+  }
+
+  static PathTrie compile(Collection<String> patterns) {
+    boolean matchAll = false;
+    MutableNode root = new MutableNode();
+    for (String pattern : patterns) {
+      if (ROOT.equals(pattern)) {
+        matchAll = true;
+      } else {
+        MutableNode node = root;
+        for (int i = 0; i < pattern.length(); i++) {
+          node = node.child(pattern.charAt(i));
+        }
+        if (pattern.endsWith("/")) {
+          // directory, including all its sub-directories
+          node.prefix = true;
+        } else {
+          node.exact = true;
+        }
+      }
+    }
+    return new PathTrie(root.freeze(), matchAll);
+  }
+
+  /**
+   * Whether a pattern matches the name, which is a path separated by slashes like "org/foo/Bar.class"
+   */
+  boolean matches(String name) {
+    if (matchAll) {
+      return true;
+    }
+    Node node = walk(root, name, false);
+    return node != null && (node.prefix || node.exact);
+  }
+
+  /**
+   * Whether a pattern matches the resource of a class, for example "org/foo/Bar.class" for "org.foo.Bar".
+   * Same as {@link #matches(String)} but the resource name is not computed.
+   */
+  boolean matchesClass(String classname) {
+    if (matchAll) {
+      return true;
+    }
+    Node node = walk(root, classname, true);
+    if (node == null || node.prefix) {
+      return node != null;
+    }
+    node = walk(node, CLASS_SUFFIX, false);
+    return node != null && (node.prefix || node.exact);
+  }
+
+  /**
+   * Whether a pattern matches all the names starting with the given directory, for example "org/foo/"
+   */
+  boolean matchesAllUnder(String directoryPrefix) {
+    if (matchAll) {
+      return true;
+    }
+    Node node = walk(root, directoryPrefix, false);
+    return node != null && node.prefix;
+  }
+
+  /**
+   * Whether a pattern may match some of the names starting with the given directory, for example "org/foo/"
+   */
+  boolean mayMatchUnder(String directoryPrefix) {
+    return matchAll || walk(root, directoryPrefix, false) != null;
+  }
+
+  /**
+   * Follows the characters from the given node. Stops on the first directory pattern,
+   * or returns null if no patterns start with the characters.
+   */
+  @CheckForNull
+  private static Node walk(Node from, String chars, boolean dotsAsSlashes) {
+    Node node = from;
+    for (int i = 0; i < chars.length(); i++) {
+      char c = chars.charAt(i);
+      node = node.child(dotsAsSlashes && c == '.' ? '/' : c);
+      if (node == null || node.prefix) {
+        return node;
+      }
+    }
+    return node;
+  }
+
+  private static class Node {
+    private final char[] keys;
+    private final Node[] children;
+    private final boolean prefix;
+    private final boolean exact;
+
+    private Node(char[] keys, Node[] children, boolean prefix, boolean exact) {
+      this.keys = keys;
+      this.children = children;
+      this.prefix = prefix;
+      this.exact = exact;
+    }
+
+    @CheckForNull
+    private Node child(char c) {
+      int index = Arrays.binarySearch(keys, c);
+      return index < 0 ? null : children[index];
+    }
+  }
+
+  private static class MutableNode {
+    private final Map<Character, MutableNode> children = new TreeMap<>();
+    private boolean prefix;
+    private boolean exact;
+
+    private MutableNode child(char c) {
+      MutableNode child = children.get(c);
+      if (child == null) {
+        child = new MutableNode();
+        children.put(c, child);
+      }
+      return child;
+    }
+
+    private Node freeze() {
+      if (children.isEmpty()) {
+        return new Node(NO_KEYS, NO_CHILDREN, prefix, exact);
+      }
+      char[] keys = new char[children.size()];
+      Node[] frozenChildren = new Node[children.size()];
+      int index = 0;
+      for (Map.Entry<Character, MutableNode> entry : children.entrySet()) {
+        keys[index] = entry.getKey();
+        frozenChildren[index] = entry.getValue().freeze();
+        index++;
+      }
+      return new Node(keys, frozenChildren, prefix, exact);
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.util.HashSet;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Packages of the modules of the boot layer (java.base, java.sql, jdk.*, ...) that are visible from a base
+ * classloader. See {@link ClassloaderBuilder#setPlatformPackageShortcut(boolean)}.
+ */
+class PlatformPackages {
+
+  private final Set<String> packages;
+
+  private PlatformPackages(Set<String> packages) {
+    this.packages = packages;
+  }
+
+  /**
+   * Computes the packages of the modules defined to the bootstrap classloader, to {@code base}
+   * or to its ancestors.
+   *
+   * @param base the base classloader, or null for the bootstrap classloader
+   */
+  static PlatformPackages of(@Nullable ClassLoader base) {
+    Set<String> packages = new HashSet<>();
+    for (Module module : ModuleLayer.boot().modules()) {
+      if (isVisible(module.getClassLoader(), base)) {
+        packages.addAll(module.getPackages());
+      }
+    }
+    return new PlatformPackages(packages);
+  }
+
+  private static boolean isVisible(@Nullable ClassLoader moduleClassloader, @Nullable ClassLoader base) {
+    if (moduleClassloader == null) {
+      // bootstrap classloader
+      return true;
+    }
+    for (ClassLoader cl = base; cl != null; cl = cl.getParent()) {
+      if (cl == moduleClassloader) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  boolean containsClass(String classname) {
+    int lastDot = classname.lastIndexOf('.');
+    return lastDot > 0 && packages.contains(classname.substring(0, lastDot));
+  }
+
+  int size() {
+    return packages.size();
+  }
+}
@@ -0,0 +1,213 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.lang.ref.Cleaner;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the classloaders created by {@link ClassloaderBuilder} in order to report those that stay reachable
+ * after being closed, for example through thread locals, static caches or the context classloader of threads.
+ * Each of them pins in memory the classes it defined. Register it with
+ * {@link ClassloaderBuilder#setLeakDetector(RealmLeakDetector)}.
+ * <p/>
+ * Classloaders are referenced weakly, so the detector does not cause leaks by itself. It is thread-safe.
+ * It is intended to be used by tests:
+ * <pre>
+ * RealmLeakDetector detector = new RealmLeakDetector();
+ * ClassloaderGraph graph = new ClassloaderBuilder().setLeakDetector(detector)...buildGraph();
+ * // ...
+ * graph.close();
+ * assertThat(detector.detectLeaks(3)).isEmpty();
+ * </pre>
+ *
+ * @since 1.3
+ */
+public final class RealmLeakDetector {
+
+  private static final long GC_WAIT_MILLIS = 10L;
+
+  private final Cleaner cleaner = Cleaner.create();
+  private final Set<Tracker> trackers = ConcurrentHashMap.newKeySet();
+  private final AtomicLong gcCycles = new AtomicLong();
+
+  public RealmLeakDetector() {
+    watchGc(new GcCounter(this));
+  }
+
+  /**
+   * Registers an object that is only weakly reachable, so that it is cleaned by the next garbage collection.
+   * The cleaning action counts the cycle then registers a new object, until the detector is not used anymore.
+   */
+  private static void watchGc(GcCounter counter) {
+    RealmLeakDetector detector = counter.detector.get();
+    if (detector != null) {
+      detector.cleaner.register(new Object(), () -> {
+        RealmLeakDetector d = counter.detector.get();
+        if (d != null) {
+          d.gcCycles.incrementAndGet();
+          watchGc(counter);
+        }
+      });
+    }
+  }
+
+  Tracker track(ClassRealm realm) {
+    Tracker tracker = new Tracker(realm, gcCycles);
+    Set<Tracker> all = trackers;
+    all.add(tracker);
+    // the action must not reference the classloader
+    cleaner.register(realm, () -> all.remove(tracker));
+    return tracker;
+  }
+
+  /**
+   * Number of garbage collections observed since the creation of the detector
+   */
+  long getGcCycles() {
+    return gcCycles.get();
+  }
+
+  /**
+   * Classloaders that are closed but still reachable although at least {@code gcCycles} garbage collections
+   * ran since they have been closed. It does not trigger garbage collections, see {@link #detectLeaks(int)}.
+   */
+  public List<Leak> getLeaks(int gcCycles) {
+    List<Leak> leaks = new ArrayList<>();
+    long now = this.gcCycles.get();
+    for (Tracker tracker : trackers) {
+      long closedAt = tracker.closedAtGcCycle;
+      if (closedAt >= 0 && now - closedAt >= gcCycles && tracker.realm.get() != null) {
+        leaks.add(new Leak(tracker.key, tracker.getDefinedClasses(), now - closedAt));
+      }
+    }
+    return leaks;
+  }
+
+  /**
+   * Requests garbage collections until at least {@code gcCycles} of them ran since the last classloader
+   * has been closed, then returns the classloaders that are still reachable. Gives up after
+   * 10 requests per expected cycle, as {@link System#gc()} is only a hint to the JVM.
+   */
+  public List<Leak> detectLeaks(int gcCycles) {
+    long target = lastClosedAtGcCycle() + gcCycles;
+    for (int attempt = 0; attempt < 10 * gcCycles && this.gcCycles.get() < target; attempt++) {
+      System.gc();
+      try {
+        Thread.sleep(GC_WAIT_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    return getLeaks(gcCycles);
+  }
+
+  private long lastClosedAtGcCycle() {
+    long last = gcCycles.get();
+    for (Tracker tracker : trackers) {
+      last = Math.max(last, tracker.closedAtGcCycle);
+    }
+    return last;
+  }
+
+  /**
+   * Classloader that is still reachable after being closed
+   */
+  public static final class Leak {
+    private final String key;
+    private final List<String> definedClasses;
+    private final long gcCyclesSinceClose;
+
+    private Leak(String key, List<String> definedClasses, long gcCyclesSinceClose) {
+      this.key = key;
+      this.definedClasses = definedClasses;
+      this.gcCyclesSinceClose = gcCyclesSinceClose;
+    }
+
+    /**
+     * Key of the classloader, as declared in {@link ClassloaderBuilder#newClassloader(String)}
+     */
+    public String getKey() {
+      return key;
+    }
+
+    /**
+     * Names of the classes defined by the classloader, in order of definition
+     */
+    public List<String> getDefinedClasses() {
+      return definedClasses;
+    }
+
+    public long getGcCyclesSinceClose() {
+      return gcCyclesSinceClose;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Classloader %s is reachable %d GC cycles after close. Defined classes: %s", key, gcCyclesSinceClose, definedClasses);
+    }
+  }
+
+  /**
+   * State of a classloader. It is referenced by the classloader and must not reference it strongly.
+   */
+  static final class Tracker {
+    private final String key;
+    private final WeakReference<ClassRealm> realm;
+    private final AtomicLong gcCycles;
+    private final List<String> definedClasses = new ArrayList<>();
+    private volatile long closedAtGcCycle = -1L;
+
+    private Tracker(ClassRealm realm, AtomicLong gcCycles) {
+      this.key = realm.getKey();
+      this.realm = new WeakReference<>(realm);
+      this.gcCycles = gcCycles;
+    }
+
+    synchronized void defined(String classname) {
+      definedClasses.add(classname);
+    }
+
+    void closed() {
+      if (closedAtGcCycle < 0) {
+        closedAtGcCycle = gcCycles.get();
+      }
+    }
+
+    private synchronized List<String> getDefinedClasses() {
+      return Collections.unmodifiableList(new ArrayList<>(definedClasses));
+    }
+  }
+
+  private static final class GcCounter {
+    private final WeakReference<RealmLeakDetector> detector;
+
+    private GcCounter(RealmLeakDetector detector) {
+      this.detector = new WeakReference<>(detector);
+    }
+  }
+}
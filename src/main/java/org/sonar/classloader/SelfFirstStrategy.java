@@ -20,7 +20,7 @@
 package org.sonar.classloader;
 
 import java.net.URL;
-import java.util.Collection;
+import java.util.Enumeration;
 
 class SelfFirstStrategy implements Strategy {
 
@@ -31,36 +31,34 @@ class SelfFirstStrategy implements Strategy {
   }
 
   @Override
-  public Class loadClass(StrategyContext context, String name) throws ClassNotFoundException {
-    Class clazz = context.loadClassFromSiblings(name);
+  public Class loadClass(StrategyContext context, String name, VisitedRealms visited) {
+    Class clazz = context.loadClassFromSiblings(name, visited);
     if (clazz == null) {
-      clazz = context.loadClassFromSelf(name);
+      clazz = context.loadClassFromSelf(name, visited);
       if (clazz == null) {
-        clazz = context.loadClassFromParent(name);
-        if (clazz == null) {
-          throw new ClassNotFoundException(name);
-        }
+        clazz = context.loadClassFromParent(name, visited);
       }
     }
     return clazz;
   }
 
   @Override
-  public URL getResource(StrategyContext context, String name) {
-    URL url = context.loadResourceFromSiblings(name);
+  public URL getResource(StrategyContext context, String name, VisitedRealms visited) {
+    URL url = context.loadResourceFromSiblings(name, visited);
     if (url == null) {
-      url = context.loadResourceFromSelf(name);
+      url = context.loadResourceFromSelf(name, visited);
       if (url == null) {
-        url = context.loadResourceFromParent(name);
+        url = context.loadResourceFromParent(name, visited);
       }
     }
     return url;
   }
 
   @Override
-  public void getResources(StrategyContext context, String name, Collection<URL> appendTo) {
-    context.loadResourcesFromSiblings(name, appendTo);
-    context.loadResourcesFromSelf(name, appendTo);
-    context.loadResourcesFromParent(name, appendTo);
+  public Enumeration<URL> getResources(StrategyContext context, String name, VisitedRealms visited) {
+    return LazyEnumeration.sequence(
+      () -> context.loadResourcesFromSiblings(name, visited),
+      () -> context.loadResourcesFromSelf(name, visited),
+      () -> context.loadResourcesFromParent(name, visited));
   }
 }
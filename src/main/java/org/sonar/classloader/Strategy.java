@@ -20,16 +20,26 @@
 package org.sonar.classloader;
 
 import java.net.URL;
-import java.util.Collection;
+import java.util.Enumeration;
 import javax.annotation.CheckForNull;
 
 public interface Strategy {
 
-  Class loadClass(StrategyContext context, String name) throws ClassNotFoundException;
+  /**
+   * Returns the class in the order of the strategy, or null if it is not found. Misses are not
+   * signaled with {@link ClassNotFoundException}, which is thrown only by the classloader
+   * that starts the lookup.
+   */
+  @CheckForNull
+  Class loadClass(StrategyContext context, String name, VisitedRealms visited);
 
   @CheckForNull
-  URL getResource(StrategyContext context, String name);
+  URL getResource(StrategyContext context, String name, VisitedRealms visited);
 
-  void getResources(StrategyContext context, String name, Collection<URL> urls);
+  /**
+   * Returns the resources in the order of the strategy. The sources are looked up
+   * lazily, when the enumeration is consumed.
+   */
+  Enumeration<URL> getResources(StrategyContext context, String name, VisitedRealms visited);
 
 }
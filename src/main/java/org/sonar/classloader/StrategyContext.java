@@ -20,33 +20,36 @@
 package org.sonar.classloader;
 
 import java.net.URL;
-import java.util.Collection;
+import java.util.Enumeration;
 import javax.annotation.CheckForNull;
 
 interface StrategyContext {
 
   @CheckForNull
-  Class loadClassFromSiblings(String name);
+  Class loadClassFromSiblings(String name, VisitedRealms visited);
 
   @CheckForNull
-  Class loadClassFromSelf(String name);
+  Class loadClassFromSelf(String name, VisitedRealms visited);
 
   @CheckForNull
-  Class loadClassFromParent(String name);
+  Class loadClassFromParent(String name, VisitedRealms visited);
 
   @CheckForNull
-  URL loadResourceFromSiblings(String name);
+  URL loadResourceFromSiblings(String name, VisitedRealms visited);
 
   @CheckForNull
-  URL loadResourceFromSelf(String name);
+  URL loadResourceFromSelf(String name, VisitedRealms visited);
 
   @CheckForNull
-  URL loadResourceFromParent(String name);
+  URL loadResourceFromParent(String name, VisitedRealms visited);
 
-  void loadResourcesFromSiblings(String name, Collection<URL> appendTo);
+  /**
+   * The returned enumeration may look up the resources lazily, when it is consumed
+   */
+  Enumeration<URL> loadResourcesFromSiblings(String name, VisitedRealms visited);
 
-  void loadResourcesFromSelf(String name, Collection<URL> appendTo);
+  Enumeration<URL> loadResourcesFromSelf(String name, VisitedRealms visited);
 
-  void loadResourcesFromParent(String name, Collection<URL> appendTo);
+  Enumeration<URL> loadResourcesFromParent(String name, VisitedRealms visited);
 
 }
@@ -0,0 +1,94 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.security.CodeSigner;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.Manifest;
+import javax.annotation.CheckForNull;
+
+/**
+ * Constituent that can not be indexed, for example a remote URL, a multi-release JAR
+ * or a JAR referencing other files through the attribute Class-Path of its manifest.
+ * Lookups are delegated to a {@link URLClassLoader} dedicated to this URL.
+ */
+class UrlConstituent extends Constituent {
+
+  private final URLClassLoader loader;
+
+  UrlConstituent(URL url) {
+    super(url);
+    this.loader = new URLClassLoader(new URL[] {url}, null);
+  }
+
+  @CheckForNull
+  @Override
+  Set<String> getDirectories() {
+    return null;
+  }
+
+  @CheckForNull
+  @Override
+  Entry findEntry(String name) throws IOException {
+    URL url = loader.findResource(name);
+    if (url == null) {
+      return null;
+    }
+    final URLConnection connection = url.openConnection();
+    return new Entry(url) {
+      private CodeSigner[] codeSigners;
+      private Manifest manifest;
+
+      @Override
+      ByteBuffer getBytes() throws IOException {
+        byte[] bytes = readFully(connection.getInputStream(), connection.getContentLengthLong());
+        if (connection instanceof JarURLConnection) {
+          JarURLConnection jarConnection = (JarURLConnection) connection;
+          JarEntry jarEntry = jarConnection.getJarEntry();
+          codeSigners = jarEntry == null ? null : jarEntry.getCodeSigners();
+          manifest = jarConnection.getManifest();
+        }
+        return ByteBuffer.wrap(bytes);
+      }
+
+      @Override
+      CodeSigner[] getCodeSigners() {
+        return codeSigners;
+      }
+
+      @Override
+      Manifest getManifest() {
+        return manifest;
+      }
+    };
+  }
+
+  @Override
+  public void close() throws IOException {
+    loader.close();
+  }
+}
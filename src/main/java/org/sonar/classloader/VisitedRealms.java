@@ -0,0 +1,142 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Realms visited by a single lookup. When realms share siblings or parents, for example in the diamond
+ * A -> B, A -> C, B -> D, C -> D, each realm is looked up at most once, so that its resources are not
+ * returned twice and its misses are not paid twice. Realms are compared by identity. The base classloaders
+ * of the realms, usually shared, are also probed at most once.
+ * <p/>
+ * Realms are marked once the masks of the path to them accept the requested name, so that a realm
+ * skipped on a path because of a mask can still be visited through another path.
+ * Not thread-safe. A lookup is executed by a single thread, including the lookup of resources by
+ * {@link ClassRealm#getResources(String)} which runs while the returned enumeration is consumed. Like any
+ * {@link java.util.Enumeration}, it must not be consumed concurrently by several threads.
+ */
+class VisitedRealms {
+
+  private static final int MAX_ARRAY_SIZE = 16;
+
+  // replaces the null base classloader, which is the bootstrap classloader
+  private static final Object BOOTSTRAP = new Object();
+
+  private ClassRealm[] array = new ClassRealm[4];
+  private int size = 0;
+
+  // replaces the array when too many realms are visited
+  @Nullable
+  private Set<ClassRealm> set = null;
+
+  // base classloaders already probed, usually a single one shared by all the realms
+  private Object[] bases = new Object[1];
+  private int basesSize = 0;
+
+  // number of realms not looked up because already visited through another path
+  private int skips = 0;
+
+  VisitedRealms() {
+  }
+
+  /**
+   * Starts a lookup by the given realm, which has already probed its base classloader
+   */
+  static VisitedRealms startingAt(ClassRealm realm) {
+    VisitedRealms visited = new VisitedRealms();
+    visited.add(realm);
+    visited.probeBase(realm.getParent());
+    return visited;
+  }
+
+  /**
+   * Marks the realm as visited. Returns false if it has already been visited by this lookup.
+   */
+  boolean add(ClassRealm realm) {
+    boolean added = doAdd(realm);
+    if (!added) {
+      skips++;
+    }
+    return added;
+  }
+
+  private boolean doAdd(ClassRealm realm) {
+    if (set != null) {
+      return set.add(realm);
+    }
+    for (int i = 0; i < size; i++) {
+      if (array[i] == realm) {
+        return false;
+      }
+    }
+    if (size == MAX_ARRAY_SIZE) {
+      set = Collections.newSetFromMap(new IdentityHashMap<ClassRealm, Boolean>());
+      for (ClassRealm visited : array) {
+        set.add(visited);
+      }
+      array = null;
+      return set.add(realm);
+    }
+    if (size == array.length) {
+      ClassRealm[] larger = new ClassRealm[array.length * 2];
+      System.arraycopy(array, 0, larger, 0, size);
+      array = larger;
+    }
+    array[size] = realm;
+    size++;
+    return true;
+  }
+
+  /**
+   * Marks the base classloader of a realm as probed. Returns false if it has already been probed
+   * by this lookup, as it would miss the class again.
+   */
+  boolean probeBase(@Nullable ClassLoader base) {
+    Object key = base == null ? BOOTSTRAP : base;
+    for (int i = 0; i < basesSize; i++) {
+      if (bases[i] == key) {
+        return false;
+      }
+    }
+    if (basesSize == bases.length) {
+      bases = Arrays.copyOf(bases, bases.length * 2);
+    }
+    bases[basesSize] = key;
+    basesSize++;
+    return true;
+  }
+
+  /**
+   * Number of realms not looked up because they had already been visited. A miss is a true miss, that does not
+   * depend on the path of the lookup, only if this number does not change during the lookup.
+   */
+  int skips() {
+    return skips;
+  }
+
+  int size() {
+    return set != null ? set.size() : size;
+  }
+}
@@ -0,0 +1,334 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Central directory of a ZIP file whose bytes are already in memory, for example mapped from
+ * the filesystem. The central directory is parsed once into a compact table of entries sorted by
+ * hash of names. Entry names are decoded only when listing directories.
+ * <p/>
+ * ZIP64 archives and encrypted entries are not supported.
+ */
+class ZipDirectory {
+
+  private static final int EOCD_SIGNATURE = 0x06054b50;
+  private static final int CEN_SIGNATURE = 0x02014b50;
+  private static final int LOC_SIGNATURE = 0x04034b50;
+  private static final int EOCD_SIZE = 22;
+  private static final int CEN_HEADER_SIZE = 46;
+  private static final int LOC_HEADER_SIZE = 30;
+  private static final int MAX_COMMENT_SIZE = 0xFFFF;
+  private static final int STORED = 0;
+  private static final int DEFLATED = 8;
+
+  private final ByteBuffer zip;
+  // offsets of the headers of entries in central directory, sorted by hashes of names
+  private final int[] hashes;
+  private final int[] offsets;
+  private final Set<String> directories;
+  private final boolean signed;
+
+  private ZipDirectory(ByteBuffer zip, int[] hashes, int[] offsets, Set<String> directories, boolean signed) {
+    this.zip = zip;
+    this.hashes = hashes;
+    this.offsets = offsets;
+    this.directories = directories;
+    this.signed = signed;
+  }
+
+  static ZipDirectory parse(ByteBuffer bytes) throws ZipException {
+    ByteBuffer zip = bytes.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    int eocd = findEndOfCentralDirectory(zip);
+    int count = zip.getShort(eocd + 10) & 0xFFFF;
+    long cenSize = zip.getInt(eocd + 12) & 0xFFFFFFFFL;
+    long cenOffset = zip.getInt(eocd + 16) & 0xFFFFFFFFL;
+    if (count == 0xFFFF || cenSize == 0xFFFFFFFFL || cenOffset == 0xFFFFFFFFL) {
+      throw new ZipException("ZIP64 archives are not supported");
+    }
+    if (cenOffset + cenSize > eocd) {
+      throw new ZipException("Invalid offset of central directory");
+    }
+
+    long[] hashAndOffsets = new long[count];
+    Set<String> directories = new HashSet<>();
+    boolean signed = false;
+    int offset = (int) cenOffset;
+    int previousDirStart = -1;
+    int previousDirLength = -1;
+    for (int i = 0; i < count; i++) {
+      if (offset + CEN_HEADER_SIZE > eocd || zip.getInt(offset) != CEN_SIGNATURE) {
+        throw new ZipException("Invalid header of central directory at offset " + offset);
+      }
+      if ((zip.getShort(offset + 8) & 1) != 0) {
+        throw new ZipException("Encrypted entries are not supported");
+      }
+      int nameLength = zip.getShort(offset + 28) & 0xFFFF;
+      int extraLength = zip.getShort(offset + 30) & 0xFFFF;
+      int commentLength = zip.getShort(offset + 32) & 0xFFFF;
+      int nameStart = offset + CEN_HEADER_SIZE;
+      hashAndOffsets[i] = ((long) hash(zip, nameStart, nameLength) << 32) | offset;
+
+      int dirLength = directoryLength(zip, nameStart, nameLength);
+      if (dirLength != previousDirLength || !sameBytes(zip, nameStart, previousDirStart, dirLength)) {
+        directories.add(decode(zip, nameStart, dirLength));
+        previousDirStart = nameStart;
+        previousDirLength = dirLength;
+      }
+      signed |= isSignatureFile(zip, nameStart, nameLength);
+      offset = nameStart + nameLength + extraLength + commentLength;
+    }
+
+    Arrays.sort(hashAndOffsets);
+    int[] hashes = new int[count];
+    int[] offsets = new int[count];
+    for (int i = 0; i < count; i++) {
+      hashes[i] = (int) (hashAndOffsets[i] >> 32);
+      offsets[i] = (int) hashAndOffsets[i];
+    }
+    return new ZipDirectory(zip, hashes, offsets, Collections.unmodifiableSet(directories), signed);
+  }
+
+  /**
+   * Checksum of the central directory of a ZIP file, which contains the CRC-32 and sizes of all
+   * the entries. Only the end of the file is read.
+   */
+  static long checksumOfCentralDirectory(FileChannel channel) throws IOException {
+    long fileSize = channel.size();
+    int tailSize = (int) Math.min(fileSize, EOCD_SIZE + MAX_COMMENT_SIZE);
+    ByteBuffer tail = readFully(channel, fileSize - tailSize, tailSize);
+    int eocd = findEndOfCentralDirectory(tail);
+    long cenSize = tail.getInt(eocd + 12) & 0xFFFFFFFFL;
+    long cenOffset = tail.getInt(eocd + 16) & 0xFFFFFFFFL;
+    if (cenSize == 0xFFFFFFFFL || cenOffset == 0xFFFFFFFFL) {
+      throw new ZipException("ZIP64 archives are not supported");
+    }
+    if (cenOffset + cenSize > fileSize - tailSize + eocd) {
+      throw new ZipException("Invalid offset of central directory");
+    }
+    CRC32 crc = new CRC32();
+    crc.update(readFully(channel, cenOffset, (int) cenSize));
+    return (cenSize << 32) | crc.getValue();
+  }
+
+  private static ByteBuffer readFully(FileChannel channel, long position, int size) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new EOFException("Unexpected end of file after " + (position + buffer.position()) + " bytes");
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private static int findEndOfCentralDirectory(ByteBuffer zip) throws ZipException {
+    int min = Math.max(0, zip.limit() - EOCD_SIZE - MAX_COMMENT_SIZE);
+    for (int i = zip.limit() - EOCD_SIZE; i >= min; i--) {
+      if (zip.getInt(i) == EOCD_SIGNATURE) {
+        return i;
+      }
+    }
+    throw new ZipException("End of central directory not found");
+  }
+
+  /**
+   * Length of the directory of the entry name, without the trailing slash
+   */
+  private static int directoryLength(ByteBuffer zip, int nameStart, int nameLength) {
+    int end = nameLength - 2;
+    for (int i = end; i >= 0; i--) {
+      if (zip.get(nameStart + i) == '/') {
+        return i;
+      }
+    }
+    return 0;
+  }
+
+  private static boolean sameBytes(ByteBuffer zip, int start, int otherStart, int length) {
+    for (int i = 0; i < length; i++) {
+      if (zip.get(start + i) != zip.get(otherStart + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isSignatureFile(ByteBuffer zip, int nameStart, int nameLength) {
+    if (nameLength < 12 || zip.get(nameStart) != 'M' || zip.get(nameStart + 8) != '/') {
+      return false;
+    }
+    String name = decode(zip, nameStart, nameLength).toUpperCase(Locale.ENGLISH);
+    return name.startsWith("META-INF/") && name.indexOf('/', 9) < 0
+      && (name.endsWith(".SF") || name.endsWith(".RSA") || name.endsWith(".DSA") || name.endsWith(".EC"));
+  }
+
+  private static String decode(ByteBuffer zip, int start, int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = zip.get(start + i);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static int hash(ByteBuffer zip, int start, int length) {
+    int h = 0;
+    for (int i = 0; i < length; i++) {
+      h = 31 * h + (zip.get(start + i) & 0xFF);
+    }
+    return h;
+  }
+
+  private static int hash(byte[] bytes) {
+    int h = 0;
+    for (byte b : bytes) {
+      h = 31 * h + (b & 0xFF);
+    }
+    return h;
+  }
+
+  /**
+   * Directories of entries, see {@link Constituent#getDirectories()}
+   */
+  Set<String> getDirectories() {
+    return directories;
+  }
+
+  /**
+   * Whether the archive contains signature files, which are verified only by {@link java.util.jar.JarFile}
+   */
+  boolean isSigned() {
+    return signed;
+  }
+
+  int size() {
+    return offsets.length;
+  }
+
+  /**
+   * Offset of the entry in central directory, or -1 if not found
+   */
+  int find(String name) {
+    byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+    int hash = hash(nameBytes);
+    int index = Arrays.binarySearch(hashes, hash);
+    if (index < 0) {
+      return -1;
+    }
+    while (index > 0 && hashes[index - 1] == hash) {
+      index--;
+    }
+    for (; index < hashes.length && hashes[index] == hash; index++) {
+      if (hasName(offsets[index], nameBytes)) {
+        return offsets[index];
+      }
+    }
+    return -1;
+  }
+
+  private boolean hasName(int cen, byte[] name) {
+    int nameLength = zip.getShort(cen + 28) & 0xFFFF;
+    if (nameLength != name.length) {
+      return false;
+    }
+    int nameStart = cen + CEN_HEADER_SIZE;
+    for (int i = 0; i < nameLength; i++) {
+      if (zip.get(nameStart + i) != name[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Uncompressed size of the entry
+   */
+  long getSize(int cen) {
+    return zip.getInt(cen + 24) & 0xFFFFFFFFL;
+  }
+
+  /**
+   * Content of the entry. Stored entries are not copied, the returned buffer is a read-only view
+   * of the archive. Deflated entries are inflated into the heap.
+   */
+  ByteBuffer read(int cen) throws IOException {
+    int method = zip.getShort(cen + 10) & 0xFFFF;
+    long compressedSize = zip.getInt(cen + 20) & 0xFFFFFFFFL;
+    long size = getSize(cen);
+    long loc = zip.getInt(cen + 42) & 0xFFFFFFFFL;
+    if (loc + LOC_HEADER_SIZE > zip.limit() || zip.getInt((int) loc) != LOC_SIGNATURE) {
+      throw new ZipException("Invalid local header at offset " + loc);
+    }
+    long dataStart = loc + LOC_HEADER_SIZE + (zip.getShort((int) loc + 26) & 0xFFFF) + (zip.getShort((int) loc + 28) & 0xFFFF);
+    if (dataStart + compressedSize > zip.limit()) {
+      throw new ZipException("Invalid size of entry at offset " + loc);
+    }
+    ByteBuffer data = zip.duplicate();
+    data.limit((int) (dataStart + compressedSize)).position((int) dataStart);
+    if (method == STORED) {
+      return data.slice().asReadOnlyBuffer();
+    }
+    if (method == DEFLATED) {
+      return inflate(data, (int) size);
+    }
+    throw new ZipException("Unsupported compression method " + method);
+  }
+
+  /**
+   * Inflates directly from the archive, without copying the compressed data into the heap
+   */
+  private static ByteBuffer inflate(ByteBuffer data, int size) throws ZipException {
+    ByteBuffer output = ByteBuffer.allocate(size);
+    Inflater inflater = new Inflater(true);
+    try {
+      inflater.setInput(data);
+      while (output.hasRemaining() && !inflater.finished()) {
+        int inflated = inflater.inflate(output);
+        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+      }
+      if (output.position() != size) {
+        throw new ZipException("Invalid size of inflated entry: " + output.position() + ", expected " + size);
+      }
+      output.flip();
+      return output;
+    } catch (DataFormatException e) {
+      throw new ZipException("Invalid deflated data: " + e.getMessage());
+    } finally {
+      inflater.end();
+    }
+  }
+}
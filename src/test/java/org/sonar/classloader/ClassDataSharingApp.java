@@ -0,0 +1,49 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Application started by {@link ClassDataSharingTest}. Loads the class A of the JAR file given as first argument
+ * and writes the class list to the file given as optional second argument.
+ */
+public class ClassDataSharingApp {
+
+  public static void main(String[] args) throws Exception {
+    ClassListRecorder recorder = new ClassListRecorder();
+    Map<String, ClassLoader> classloaders = new ClassloaderBuilder()
+      .setClassListRecorder(recorder)
+      .newClassloader("the-cl")
+      .addURL("the-cl", new File(args[0]).toURI().toURL())
+      .build();
+
+    // classes must be linked to be archived
+    Class.forName("A", true, classloaders.get("the-cl"));
+    if (args.length > 1) {
+      try (Writer writer = new FileWriter(args[1])) {
+        recorder.write(writer);
+      }
+    }
+  }
+}
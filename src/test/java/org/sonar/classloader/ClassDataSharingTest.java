@@ -0,0 +1,122 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Starts {@link ClassDataSharingApp} in new JVMs, a first time to create an archive of Class Data Sharing,
+ * a second time to use it.
+ */
+public class ClassDataSharingTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private File appJar;
+  private File aJar;
+
+  @Before
+  public void setUp() throws Exception {
+    // Class Data Sharing does not support the directories of classpath
+    appJar = temp.newFile("app.jar");
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(appJar))) {
+      addClasses(out, codeSource(ClassloaderBuilder.class));
+      addClasses(out, codeSource(ClassDataSharingApp.class));
+    }
+    aJar = temp.newFile("a.jar");
+    FileUtils.copyFile(new File("tester/a.jar"), aJar);
+  }
+
+  @Test
+  public void classes_are_loaded_from_dynamic_archive() throws Exception {
+    // -XX:ArchiveClassesAtExit is supported since Java 13
+    assumeTrue(Runtime.version().feature() >= 13);
+    File archive = new File(temp.getRoot(), "dynamic.jsa");
+
+    run("-XX:ArchiveClassesAtExit=" + archive, "-cp", appJar.getPath(), ClassDataSharingApp.class.getName(), aJar.getPath());
+    String output = run("-XX:SharedArchiveFile=" + archive, "-Xlog:class+load=info", "-cp", appJar.getPath(),
+      ClassDataSharingApp.class.getName(), aJar.getPath());
+
+    assertThat(output).contains(" A source: shared objects file");
+  }
+
+  @Test
+  public void classes_are_loaded_from_static_archive_of_class_list() throws Exception {
+    File classList = new File(temp.getRoot(), "classlist.txt");
+    File archive = new File(temp.getRoot(), "static.jsa");
+
+    run("-cp", appJar.getPath(), ClassDataSharingApp.class.getName(), aJar.getPath(), classList.getPath());
+    assertThat(Files.readAllLines(classList.toPath())).containsExactly(
+      "java/lang/Object id: 0",
+      "# the-cl",
+      "A id: 1 super: 0 source: " + aJar.getAbsolutePath());
+
+    run("-Xshare:dump", "-XX:SharedClassListFile=" + classList, "-XX:SharedArchiveFile=" + archive, "-cp", appJar.getPath());
+    String output = run("-XX:SharedArchiveFile=" + archive, "-Xlog:class+load=info", "-cp", appJar.getPath(),
+      ClassDataSharingApp.class.getName(), aJar.getPath());
+
+    assertThat(output).contains(" A source: shared objects file");
+  }
+
+  private static String run(String... args) throws IOException, InterruptedException {
+    List<String> command = new ArrayList<>();
+    command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+    command.addAll(Arrays.asList(args));
+    Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+    String output = IOUtils.toString(process.getInputStream(), StandardCharsets.UTF_8);
+    assertThat(process.waitFor()).as(output).isZero();
+    return output;
+  }
+
+  private static Path codeSource(Class clazz) throws Exception {
+    return new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI()).toPath();
+  }
+
+  private static void addClasses(JarOutputStream out, Path directory) throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+        out.putNextEntry(new JarEntry(directory.relativize(file).toString().replace(File.separatorChar, '/')));
+        Files.copy(file, out);
+        out.closeEntry();
+      }
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ClassListRecorderTest {
+
+  @Test
+  public void record_classes_defined_by_classloaders() throws Exception {
+    ClassListRecorder recorder = new ClassListRecorder();
+    Map<String, ClassLoader> newClassloaders = new ClassloaderBuilder()
+      .setClassListRecorder(recorder)
+      .newClassloader("the-parent")
+      .addURL("the-parent", new File("tester/a.jar").toURL())
+      .newClassloader("the-child")
+      .addURL("the-child", new File("tester/b/").toURL())
+      .addURL("the-child", new File("tester/c.jar").toURL())
+      .setParent("the-child", "the-parent", Mask.ALL)
+      .build();
+
+    ClassLoader child = newClassloaders.get("the-child");
+    child.loadClass("A");
+    child.loadClass("B");
+    child.loadClass("C");
+    child.loadClass("A");
+
+    assertThat(recorder.getClassNames("the-parent")).containsExactly("A");
+    assertThat(recorder.getClassNames("the-child")).containsExactly("B", "C");
+
+    // classes of directories are not supported by Class Data Sharing
+    StringWriter writer = new StringWriter();
+    recorder.write(writer);
+    assertThat(writer.toString()).isEqualTo("java/lang/Object id: 0\n"
+      + "# the-parent\n"
+      + "A id: 1 super: 0 source: " + new File("tester/a.jar").getAbsolutePath() + "\n"
+      + "# the-child\n"
+      + "C id: 2 super: 0 source: " + new File("tester/c.jar").getAbsolutePath() + "\n");
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ClassLoadingLocksTest {
+
+  ClassLoadingLocks underTest = new ClassLoadingLocks();
+
+  @Test
+  public void same_lock_is_returned_while_referenced() {
+    Object lock = underTest.get("org.foo.Bar");
+
+    assertThat(underTest.get("org.foo.Bar")).isSameAs(lock);
+    assertThat(underTest.get("org.foo.Baz")).isNotSameAs(lock);
+  }
+
+  @Test
+  public void unreferenced_locks_are_released() throws Exception {
+    for (int i = 0; i < 1_000; i++) {
+      underTest.get("org.foo.Missing" + i);
+    }
+
+    for (int i = 0; i < 50 && underTest.size() > 0; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertThat(underTest.size()).isZero();
+  }
+}
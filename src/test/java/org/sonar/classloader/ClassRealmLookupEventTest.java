@@ -0,0 +1,98 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ClassRealmLookupEventTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void record_lookups() throws Exception {
+    Map<String, ClassLoader> classloaders = new ClassloaderBuilder()
+      .newClassloader("the-parent")
+      .addURL("the-parent", new File("tester/a.jar").toURL())
+      .newClassloader("the-child")
+      .addURL("the-child", new File("tester/b.jar").toURL())
+      .setParent("the-child", "the-parent", Mask.ALL)
+      .build();
+    ClassLoader child = classloaders.get("the-child");
+
+    // not recorded
+    child.loadClass("B");
+
+    Path dump = temp.newFile("lookups.jfr").toPath();
+    try (Recording recording = new Recording()) {
+      recording.enable(ClassRealmLookupEvent.NAME).withThreshold(Duration.ZERO);
+      recording.start();
+      assertThat(ClassRealmLookupEvent.isRecording()).isTrue();
+      child.loadClass("A");
+      child.getResource("missing.txt");
+      recording.stop();
+      recording.dump(dump);
+    }
+    assertThat(ClassRealmLookupEvent.isRecording()).isFalse();
+
+    List<RecordedEvent> events = new ArrayList<>();
+    for (RecordedEvent event : RecordingFile.readAllEvents(dump)) {
+      if (event.getEventType().getName().equals(ClassRealmLookupEvent.NAME) && "the-child".equals(event.getString("realm"))) {
+        events.add(event);
+      }
+    }
+    assertThat(events).hasSize(2);
+    RecordedEvent classLookup = events.get(0);
+    assertThat(classLookup.getString("type")).isEqualTo("CLASS");
+    assertThat(classLookup.getString("name")).isEqualTo("A");
+    assertThat(classLookup.getString("source")).isEqualTo("PARENT");
+    assertThat(classLookup.getInt("siblingIndex")).isEqualTo(-1);
+    assertThat(classLookup.getInt("probedRefs")).isEqualTo(1);
+    assertThat(classLookup.getDuration()).isGreaterThanOrEqualTo(Duration.ZERO);
+
+    RecordedEvent resourceLookup = events.get(1);
+    assertThat(resourceLookup.getString("type")).isEqualTo("RESOURCE");
+    assertThat(resourceLookup.getString("name")).isEqualTo("missing.txt");
+    assertThat(resourceLookup.getString("source")).isEqualTo("NOT_FOUND");
+  }
+
+  @Test
+  public void event_is_disabled_by_default() throws Exception {
+    try (Recording recording = new Recording(Configuration.getConfiguration("default"))) {
+      recording.start();
+      assertThat(ClassRealmLookupEvent.isRecording()).isFalse();
+      recording.stop();
+    }
+  }
+}
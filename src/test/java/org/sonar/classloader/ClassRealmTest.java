@@ -0,0 +1,169 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class ClassRealmTest {
+
+  private static final int THREADS = 8;
+
+  @Test
+  public void is_parallel_capable() throws Exception {
+    ClassRealm realm = (ClassRealm) new ClassloaderBuilder()
+      .newClassloader("the-cl")
+      .addURL("the-cl", new File("tester/a.jar").toURL())
+      .build().get("the-cl");
+
+    assertThat(realm.getClassLoadingLock("A")).isNotSameAs(realm).isSameAs(realm.getClassLoadingLock("A"));
+    assertThat(realm.getClassLoadingLock("A")).isNotSameAs(realm.getClassLoadingLock("B"));
+  }
+
+  /**
+   * Loading classes must not require the monitor of the classloader, otherwise
+   * threads loading distinct classes from the same realm would queue behind each other.
+   */
+  @Test
+  public void loading_classes_does_not_lock_classloader() throws Exception {
+    final ClassLoader classloader = new ClassloaderBuilder()
+      .newClassloader("the-cl")
+      .addURL("the-cl", new File("tester/a.jar").toURL())
+      .addURL("the-cl", new File("tester/b.jar").toURL())
+      .build().get("the-cl");
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      synchronized (classloader) {
+        Future<Class> a = executor.submit(new Callable<Class>() {
+          @Override
+          public Class call() throws Exception {
+            return classloader.loadClass("A");
+          }
+        });
+        assertThat(a.get(10, TimeUnit.SECONDS).getName()).isEqualTo("A");
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void concurrent_loads_of_the_same_classes_return_the_same_instances() throws Exception {
+    Map<String, ClassLoader> classloaders = new ClassloaderBuilder()
+      .newClassloader("the-parent")
+      .addURL("the-parent", new File("tester/a.jar").toURL())
+      .newClassloader("the-child")
+      .addURL("the-child", new File("tester/b.jar").toURL())
+      .addURL("the-child", new File("tester/c.jar").toURL())
+      .setParent("the-child", "the-parent", Mask.ALL)
+      .build();
+    final ClassLoader child = classloaders.get("the-child");
+
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      List<Future<List<Class>>> futures = new ArrayList<>();
+      for (int i = 0; i < THREADS; i++) {
+        futures.add(executor.submit(new Callable<List<Class>>() {
+          @Override
+          public List<Class> call() throws Exception {
+            start.await();
+            List<Class> classes = new ArrayList<>();
+            for (String name : new String[] {"A", "B", "C"}) {
+              classes.add(child.loadClass(name));
+            }
+            return classes;
+          }
+        }));
+      }
+      start.countDown();
+
+      List<Class> expected = futures.get(0).get(10, TimeUnit.SECONDS);
+      for (Future<List<Class>> future : futures) {
+        List<Class> classes = future.get(10, TimeUnit.SECONDS);
+        for (int i = 0; i < classes.size(); i++) {
+          assertThat(classes.get(i)).isSameAs(expected.get(i));
+        }
+      }
+      assertThat(expected.get(0).getClassLoader()).isSameAs(classloaders.get("the-parent"));
+      assertThat(expected.get(1).getClassLoader()).isSameAs(child);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void resources_are_looked_up_lazily() throws Exception {
+    final List<String> lookups = new ArrayList<>();
+    ClassLoader sibling1 = new URLClassLoader(new URL[] {new File("tester/a.jar").toURL()}, null) {
+      @Override
+      public Enumeration<URL> getResources(String name) throws IOException {
+        lookups.add("sibling1");
+        return super.getResources(name);
+      }
+    };
+    ClassLoader sibling2 = new URLClassLoader(new URL[] {new File("tester/b.jar").toURL()}, null) {
+      @Override
+      public Enumeration<URL> getResources(String name) throws IOException {
+        lookups.add("sibling2");
+        return super.getResources(name);
+      }
+    };
+    ClassLoader classloader = new ClassloaderBuilder()
+      .newClassloader("the-cl")
+      .addURL("the-cl", new File("tester/c.jar").toURL())
+      .addSibling("the-cl", sibling1, Mask.ALL)
+      .addSibling("the-cl", sibling2, Mask.ALL)
+      .build().get("the-cl");
+
+    Enumeration<URL> resources = classloader.getResources("META-INF/MANIFEST.MF");
+    assertThat(lookups).isEmpty();
+    assertThat(resources.nextElement().toString()).endsWith("a.jar!/META-INF/MANIFEST.MF");
+    assertThat(lookups).containsExactly("sibling1");
+    assertThat(resources.nextElement().toString()).endsWith("b.jar!/META-INF/MANIFEST.MF");
+    assertThat(resources.nextElement().toString()).endsWith("c.jar!/META-INF/MANIFEST.MF");
+    assertThat(resources.hasMoreElements()).isFalse();
+    assertThat(lookups).containsExactly("sibling1", "sibling2");
+    try {
+      resources.nextElement();
+      fail();
+    } catch (NoSuchElementException e) {
+      // ok
+    }
+  }
+}
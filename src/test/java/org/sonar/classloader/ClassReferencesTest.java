@@ -0,0 +1,74 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class ClassReferencesTest {
+
+  @Test
+  public void read_references_of_constant_pool() throws Exception {
+    byte[] classFile;
+    try (InputStream input = getClass().getResourceAsStream("ClassReferencesTest$Sample.class")) {
+      classFile = IOUtils.toByteArray(input);
+    }
+
+    assertThat(ClassReferences.of(classFile)).contains(
+      "org/sonar/classloader/ClassReferencesTest$Sample",
+      "java/lang/Object",
+      // type of field
+      "java/util/List",
+      // type of parameter
+      "java/util/Map",
+      // array
+      "java/lang/Thread",
+      "java/lang/StringBuilder");
+  }
+
+  @Test
+  public void fail_if_not_a_class_file() {
+    try {
+      ClassReferences.of(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10});
+      fail();
+    } catch (IOException e) {
+      assertThat(e).hasMessage("Not a class file");
+    }
+  }
+
+  static class Sample {
+    List<String> list;
+
+    Object threads() {
+      return new Thread[list.size()];
+    }
+
+    String describe(Map<String, String> map) {
+      return new StringBuilder().append(map.size()).append(list).toString();
+    }
+  }
+}
@@ -19,21 +19,37 @@
  */
 package org.sonar.classloader;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarOutputStream;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.fail;
 
 public class ClassloaderBuilderTest {
 
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
   ClassloaderBuilder sut = new ClassloaderBuilder();
 
   @Test
@@ -108,6 +124,50 @@ public class ClassloaderBuilderTest {
     assertThat(canLoadResource(self, "c.txt")).isFalse();
   }
 
+  @Test
+  public void directory_constituent() throws Exception {
+    Map<String, ClassLoader> classloaders = sut
+      .newClassloader("the-cl")
+      .addURL("the-cl", new File("tester/a/").toURL())
+      .build();
+
+    ClassLoader self = classloaders.get("the-cl");
+    assertThat(canLoadClass(self, "A")).isTrue();
+    assertThat(canLoadResource(self, "a.txt")).isTrue();
+    assertThat(canLoadClass(self, "B")).isFalse();
+    assertThat(canLoadResource(self, "org/foo/b.txt")).isFalse();
+    assertThat(self.loadClass("A").getProtectionDomain().getCodeSource().getLocation()).isEqualTo(new File("tester/a/").toURL());
+  }
+
+  @Test
+  public void missing_constituent_is_ignored() throws Exception {
+    Map<String, ClassLoader> classloaders = sut
+      .newClassloader("the-cl")
+      .addURL("the-cl", new File("tester/missing.jar").toURL())
+      .addURL("the-cl", new File("tester/a.jar").toURL())
+      .build();
+
+    ClassLoader self = classloaders.get("the-cl");
+    assertThat(canLoadClass(self, "A")).isTrue();
+    assertThat(canLoadResource(self, "a.txt")).isTrue();
+  }
+
+  @Test
+  public void classes_and_resources_of_unknown_packages_are_not_found() throws Exception {
+    Map<String, ClassLoader> classloaders = sut
+      .newClassloader("the-cl")
+      .addURL("the-cl", new File("tester/a.jar").toURL())
+      .addURL("the-cl", new File("tester/b.jar").toURL())
+      .build();
+
+    ClassLoader self = classloaders.get("the-cl");
+    assertThat(canLoadClass(self, "org.foo.A")).isFalse();
+    assertThat(canLoadResource(self, "org/foo/a.txt")).isFalse();
+    assertThat(Collections.list(self.getResources("org/foo/a.txt"))).isEmpty();
+    assertThat(Collections.list(self.getResources("META-INF/MANIFEST.MF"))).hasSize(2);
+    assertThat(self.loadClass("B").getProtectionDomain().getCodeSource().getLocation()).isEqualTo(new File("tester/b.jar").toURL());
+  }
+
   /**
    * Parent -> child -> grand-child classloaders. Default order strategy is parent-first
    */
@@ -521,6 +581,334 @@ public class ClassloaderBuilderTest {
     assertThat(Collections.list(child.getResources("c.txt"))).hasSize(1);
   }
 
+  @Test
+  public void negative_lookup_cache() throws Exception {
+    Map<String, ClassLoader> newClassloaders = sut
+      .newClassloader("sib1")
+      .addURL("sib1", new File("tester/a.jar").toURL())
+
+      .newClassloader("the-child")
+      .addURL("the-child", new File("tester/c.jar").toURL())
+      .addSibling("the-child", "sib1", Mask.ALL)
+      .setNegativeLookupCacheSize("the-child", 100)
+      .build();
+
+    ClassLoader child = newClassloaders.get("the-child");
+    assertThat(canLoadClass(child, "A")).isTrue();
+    assertThat(canLoadClass(child, "C")).isTrue();
+    assertThat(canLoadClass(child, "C")).isTrue();
+    assertThat(canLoadClass(child, "B")).isFalse();
+    ClassloaderBuilder.invalidateCaches(child);
+    assertThat(canLoadClass(child, "C")).isTrue();
+  }
+
+  @Test
+  public void negative_lookup_cache_ignores_misses_of_realms_already_visited() throws Exception {
+    // cycle d -> c -> e -> d
+    Map<String, ClassLoader> newClassloaders = sut
+      .newClassloader("d")
+      .addURL("d", new File("tester/a.jar").toURL())
+      .newClassloader("c")
+      .newClassloader("e")
+      .addSibling("d", "c", Mask.ALL)
+      .addSibling("c", "e", Mask.ALL)
+      .addSibling("e", "d", Mask.ALL)
+      .setNegativeLookupCacheSize("c", 100)
+      .build();
+
+    // e misses A because d is already visited by this lookup
+    assertThat(canLoadClass(newClassloaders.get("d"), "A")).isTrue();
+    assertThat(canLoadClass(newClassloaders.get("c"), "A")).isTrue();
+    assertThat(canLoadClass(newClassloaders.get("c"), "Missing")).isFalse();
+  }
+
+  @Test
+  public void fail_to_set_negative_size_of_negative_lookup_cache() throws Exception {
+    sut.newClassloader("the-cl");
+    try {
+      sut.setNegativeLookupCacheSize("the-cl", -1);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("Size of negative lookup cache must not be negative: -1");
+    }
+  }
+
+  @Test
+  public void resource_cache() throws Exception {
+    final List<String> lookups = new ArrayList<>();
+    Map<String, ClassLoader> newClassloaders = sut
+      .newClassloader("sib1")
+      .addURL("sib1", new File("tester/a.jar").toURL())
+
+      .newClassloader("the-child")
+      .addURL("the-child", new File("tester/c.jar").toURL())
+      .addSibling("the-child", "sib1", Mask.ALL)
+      .setResourceCacheSize("the-child", 100)
+      .setLookupListener("the-child", event -> lookups.add(event.getName()))
+      .build();
+
+    ClassLoader child = newClassloaders.get("the-child");
+    URL url = child.getResource("a.txt");
+    assertThat(url).isNotNull();
+    assertThat(child.getResource("a.txt")).isSameAs(url);
+    assertThat(child.getResource("missing.txt")).isNull();
+    assertThat(child.getResource("missing.txt")).isNull();
+    assertThat(lookups).containsExactly("a.txt", "missing.txt");
+
+    ClassloaderBuilder.invalidateCaches(child);
+    assertThat(child.getResource("a.txt")).isEqualTo(url);
+    assertThat(lookups).containsExactly("a.txt", "missing.txt", "a.txt");
+  }
+
+  @Test
+  public void fail_to_set_negative_size_of_resource_cache() throws Exception {
+    sut.newClassloader("the-cl");
+    try {
+      sut.setResourceCacheSize("the-cl", -1);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("Size of resource cache must not be negative: -1");
+    }
+  }
+
+  /**
+   * Diamond: the-child -> b, the-child -> c, b -> d, c -> d. Classloader d is looked up once.
+   */
+  @Test
+  public void diamond_of_siblings_is_visited_once() throws Exception {
+    final List<String> lookupsOfD = new ArrayList<>();
+    Map<String, ClassLoader> newClassloaders = sut
+      .newClassloader("d")
+      .addURL("d", new File("tester/a.jar").toURL())
+      .setLookupListener("d", event -> lookupsOfD.add(event.getName()))
+      .newClassloader("b")
+      .addSibling("b", "d", Mask.builder().exclude("a.txt").build())
+      .newClassloader("c")
+      .addSibling("c", "d", Mask.ALL)
+      .newClassloader("the-child")
+      .addURL("the-child", new File("tester/c.jar").toURL())
+      .addSibling("the-child", "b", Mask.ALL)
+      .addSibling("the-child", "c", Mask.ALL)
+      .build();
+
+    ClassLoader child = newClassloaders.get("the-child");
+    // mask of path through b excludes a.txt, but path through c accepts it
+    assertThat(Collections.list(child.getResources("a.txt"))).hasSize(1);
+    assertThat(child.getResource("a.txt")).isNotNull();
+    assertThat(Collections.list(child.getResources("A.class"))).hasSize(1);
+    assertThat(lookupsOfD).containsExactly("a.txt", "a.txt", "A.class");
+
+    lookupsOfD.clear();
+    assertThat(canLoadClass(child, "Missing")).isFalse();
+    assertThat(lookupsOfD).containsExactly("Missing");
+    assertThat(canLoadClass(child, "A")).isTrue();
+  }
+
+  @Test
+  public void base_classloader_is_probed_once_per_lookup() throws Exception {
+    final List<String> probes = new ArrayList<>();
+    ClassLoader base = new ClassLoader(getClass().getClassLoader()) {
+      @Override
+      protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        probes.add(name);
+        return super.loadClass(name, resolve);
+      }
+    };
+    Map<String, ClassLoader> newClassloaders = sut
+      .newClassloader("the-parent", base)
+      .addURL("the-parent", new File("tester/a.jar").toURL())
+      .newClassloader("the-sibling", base)
+      .addURL("the-sibling", new File("tester/b.jar").toURL())
+      .newClassloader("the-child", base)
+      .setParent("the-child", "the-parent", Mask.ALL)
+      .addSibling("the-child", "the-sibling", Mask.ALL)
+      .build();
+
+    ClassLoader child = newClassloaders.get("the-child");
+    assertThat(canLoadClass(child, "Missing")).isFalse();
+    assertThat(probes).containsExactly("Missing");
+
+    probes.clear();
+    assertThat(canLoadClass(child, "A")).isTrue();
+    assertThat(probes).containsOnlyOnce("A");
+  }
+
+  @Test
+  public void platform_package_shortcut() throws Exception {
+    final List<String> probes = new ArrayList<>();
+    ClassLoader base = new ClassLoader(getClass().getClassLoader()) {
+      @Override
+      protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        probes.add(name);
+        return super.loadClass(name, resolve);
+      }
+    };
+    Map<String, ClassLoader> newClassloaders = sut
+      .setPlatformPackageShortcut(true)
+      .newClassloader("the-cl", base)
+      .addURL("the-cl", new File("tester/a.jar").toURL())
+      .build();
+
+    ClassLoader classloader = newClassloaders.get("the-cl");
+    assertThat(canLoadClass(classloader, "A")).isTrue();
+    assertThat(probes).doesNotContain("A");
+    assertThat(classloader.loadClass("java.sql.Connection")).isSameAs(java.sql.Connection.class);
+    assertThat(canLoadClass(classloader, "java.lang.Missing")).isFalse();
+    assertThat(probes).contains("java.sql.Connection", "java.lang.Missing");
+
+    // classes of the classpath are not loaded from base classloader
+    assertThat(canLoadClass(classloader, Test.class.getName())).isFalse();
+    assertThat(probes).doesNotContain(Test.class.getName());
+  }
+
+  @Test
+  public void index_cache() throws Exception {
+    File cacheFile = new File(temp.getRoot(), "index.bin");
+    for (int i = 0; i < 2; i++) {
+      Map<String, ClassLoader> newClassloaders = new ClassloaderBuilder()
+        .setIndexCache(cacheFile)
+        .newClassloader("the-cl")
+        .addURL("the-cl", new File("tester/a.jar").toURL())
+        .addURL("the-cl", new File("tester/b.jar").toURL())
+        .build();
+
+      ClassLoader classloader = newClassloaders.get("the-cl");
+      assertThat(canLoadClass(classloader, "A")).isTrue();
+      assertThat(canLoadClass(classloader, "B")).isTrue();
+      assertThat(classloader.getResource("a.txt")).isNotNull();
+      assertThat(Collections.list(classloader.getResources("META-INF/MANIFEST.MF"))).hasSize(2);
+      assertThat(IndexCache.load(cacheFile).size()).isEqualTo(2);
+      ((Closeable) classloader).close();
+    }
+  }
+
+  @Test
+  public void jar_sharing() throws Exception {
+    ClassloaderGraph graph = sut
+      .setJarSharing(true)
+      .newClassloader("the-cl")
+      .addURL("the-cl", new File("tester/a.jar").toURL())
+      .newClassloader("other-cl")
+      .addURL("other-cl", new File("tester/a.jar").toURL())
+      .addURL("other-cl", new File("tester/b.jar").toURL())
+      .buildGraph();
+
+    ClassLoader classloader = graph.get("the-cl");
+    ClassLoader other = graph.get("other-cl");
+    assertThat(classloader.loadClass("A")).isNotSameAs(other.loadClass("A"));
+    assertThat(classloader.getResource("a.txt")).isEqualTo(other.getResource("a.txt"));
+
+    // the other classloader still reads the shared JAR file
+    ((Closeable) classloader).close();
+    assertThat(canLoadResource(other, "a.txt")).isTrue();
+    assertThat(IOUtils.toString(other.getResource("a.txt"), StandardCharsets.UTF_8)).startsWith("version 1");
+    graph.close();
+  }
+
+  @Test
+  public void nested_jars() throws Exception {
+    File plugin = temp.newFile("plugin.jar");
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(plugin))) {
+      MappedJarConstituentTest.putStored(out, "META-INF/lib/a.jar", FileUtils.readFileToByteArray(new File("tester/a.jar")));
+      MappedJarConstituentTest.putStored(out, "META-INF/lib/b.jar", FileUtils.readFileToByteArray(new File("tester/b.jar")));
+    }
+    Map<String, ClassLoader> newClassloaders = sut
+      .newClassloader("the-cl")
+      .addURL("the-cl", new URL("jar:" + plugin.toURI() + "!/META-INF/lib/a.jar"))
+      .addURL("the-cl", new URL("jar:" + plugin.toURI() + "!/META-INF/lib/b.jar"))
+      .build();
+
+    ClassLoader classloader = newClassloaders.get("the-cl");
+    Class a = classloader.loadClass("A");
+    assertThat(a.getClassLoader()).isSameAs(classloader);
+    assertThat(a.getProtectionDomain().getCodeSource().getLocation().toString()).endsWith("plugin.jar!/META-INF/lib/a.jar");
+    assertThat(canLoadClass(classloader, "B")).isTrue();
+    assertThat(IOUtils.toString(classloader.getResource("a.txt"), StandardCharsets.UTF_8)).startsWith("version 1 of a.txt");
+    assertThat(Collections.list(classloader.getResources("META-INF/MANIFEST.MF"))).hasSize(2);
+  }
+
+  @Test
+  public void in_memory_resources() throws Exception {
+    byte[] classBytes = FileUtils.readFileToByteArray(new File("tester/a/A.class"));
+    ByteBuffer directBuffer = ByteBuffer.allocateDirect(classBytes.length);
+    directBuffer.put(classBytes).flip();
+    Map<String, ByteBuffer> resources = new HashMap<>();
+    resources.put("A.class", directBuffer);
+    resources.put("org/foo/memory.txt", ByteBuffer.wrap("in memory".getBytes(StandardCharsets.UTF_8)));
+    resources.put("b.txt", ByteBuffer.wrap("in memory".getBytes(StandardCharsets.UTF_8)));
+
+    Map<String, ClassLoader> newClassloaders = sut
+      .newClassloader("the-cl")
+      .addURL("the-cl", new File("tester/b.jar").toURL())
+      .addResources("the-cl", resources)
+      .setMask("the-cl", Mask.builder().exclude("org/foo/").build())
+      .build();
+
+    ClassLoader classloader = newClassloaders.get("the-cl");
+    Class a = classloader.loadClass("A");
+    assertThat(a.getClassLoader()).isSameAs(classloader);
+    assertThat(a.getProtectionDomain().getCodeSource().getLocation().toString()).isEqualTo("memory:/the-cl/1/");
+    assertThat(((URLClassLoader) classloader).getURLs()).hasSize(2);
+    assertThat(directBuffer.position()).isZero();
+
+    // order of constituents is kept
+    assertThat(Collections.list(classloader.getResources("b.txt"))).hasSize(2);
+    URL url = classloader.getResource("b.txt");
+    assertThat(url.toString()).startsWith("jar:file:");
+    assertThat(IOUtils.toString(Collections.list(classloader.getResources("b.txt")).get(1), StandardCharsets.UTF_8)).isEqualTo("in memory");
+
+    // masks are applied
+    assertThat(canLoadResource(classloader, "org/foo/memory.txt")).isFalse();
+  }
+
+  @Test
+  public void in_memory_jar() throws Exception {
+    byte[] jarBytes = FileUtils.readFileToByteArray(new File("tester/b.jar"));
+    ByteBuffer directBuffer = ByteBuffer.allocateDirect(jarBytes.length);
+    directBuffer.put(jarBytes).flip();
+
+    Map<String, ClassLoader> newClassloaders = sut
+      .newClassloader("the-cl")
+      .addJar("the-cl", directBuffer)
+      .build();
+
+    ClassLoader classloader = newClassloaders.get("the-cl");
+    assertThat(classloader.loadClass("B").getClassLoader()).isSameAs(classloader);
+    URL url = classloader.getResource("b.txt");
+    assertThat(url.toString()).isEqualTo("jar:memory:/the-cl/0.jar!/b.txt");
+    assertThat(IOUtils.toString(url, StandardCharsets.UTF_8)).isNotEmpty();
+    assertThat(IOUtils.toByteArray(((URLClassLoader) classloader).getURLs()[0])).isEqualTo(jarBytes);
+  }
+
+  @Test
+  public void fail_to_build_if_in_memory_jar_is_invalid() throws Exception {
+    sut.newClassloader("the-cl").addJar("the-cl", ByteBuffer.wrap("not a jar".getBytes(StandardCharsets.UTF_8)));
+    try {
+      sut.build();
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Fail to open constituents of classloaders");
+    }
+  }
+
+  @Test
+  public void cycle_of_siblings_is_visited_once() throws Exception {
+    Map<String, ClassLoader> newClassloaders = sut
+      .newClassloader("a")
+      .addURL("a", new File("tester/a.jar").toURL())
+      .newClassloader("b")
+      .addURL("b", new File("tester/b.jar").toURL())
+      .addSibling("a", "b", Mask.ALL)
+      .addSibling("b", "a", Mask.ALL)
+      .build();
+
+    ClassLoader a = newClassloaders.get("a");
+    assertThat(canLoadClass(a, "B")).isTrue();
+    assertThat(canLoadClass(a, "Missing")).isFalse();
+    assertThat(a.getResource("missing.txt")).isNull();
+    assertThat(Collections.list(a.getResources("META-INF/MANIFEST.MF"))).hasSize(2);
+  }
+
   /**
    * Sibling classloader is loaded previously self:
    * - sibling has version 1 of A
@@ -764,6 +1152,54 @@ public class ClassloaderBuilderTest {
     }
   }
 
+  @Test
+  public void build_with_executor() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    final AtomicInteger tasks = new AtomicInteger();
+    try {
+      Map<String, ClassLoader> newClassloaders = sut
+        .newClassloader("the-parent")
+        .addURL("the-parent", new File("tester/a.jar").toURL())
+        .newClassloader("the-child")
+        .addURL("the-child", new File("tester/b.jar").toURL())
+        .addURL("the-child", new File("tester/c/").toURL())
+        .setParent("the-child", "the-parent", Mask.ALL)
+        .build(command -> {
+          tasks.incrementAndGet();
+          executor.execute(command);
+        });
+
+      assertThat(tasks.get()).isEqualTo(3);
+      ClassRealm child = (ClassRealm) newClassloaders.get("the-child");
+      assertThat(child.getIndex().getConstituents()).extracting(Constituent::getURL).containsExactly(child.getURLs());
+      assertThat(canLoadClass(child, "A")).isTrue();
+      assertThat(canLoadClass(child, "B")).isTrue();
+      assertThat(canLoadClass(child, "C")).isTrue();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void fail_to_build_if_executor_rejects_tasks() throws Exception {
+    sut
+      .newClassloader("the-cl")
+      .addURL("the-cl", new File("tester/a.jar").toURL())
+      .addURL("the-cl", new File("tester/b.jar").toURL());
+    final AtomicInteger tasks = new AtomicInteger();
+    try {
+      sut.build(command -> {
+        if (tasks.incrementAndGet() > 1) {
+          throw new RejectedExecutionException("full");
+        }
+        command.run();
+      });
+      fail();
+    } catch (RejectedExecutionException e) {
+      assertThat(e).hasMessage("full");
+    }
+  }
+
   private boolean canLoadClass(ClassLoader classloader, String classname) {
     try {
       classloader.loadClass(classname);
@@ -0,0 +1,356 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarFile;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.nio.charset.StandardCharsets;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class ClassloaderGraphTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void close_dependents_first() throws Exception {
+    ClassloaderGraph graph = new ClassloaderBuilder()
+      .newClassloader("the-parent")
+      .newClassloader("the-sibling")
+      .newClassloader("the-child")
+      .setParent("the-child", "the-parent", Mask.ALL)
+      .addSibling("the-child", "the-sibling", Mask.ALL)
+      .newClassloader("the-grand-child")
+      .setParent("the-grand-child", "the-child", Mask.ALL)
+      .buildGraph();
+
+    assertThat(graph.getClassloaders()).containsOnlyKeys("the-parent", "the-sibling", "the-child", "the-grand-child");
+    assertThat(graph.closingOrder()).extracting(ClassRealm::getKey)
+      .startsWith("the-grand-child", "the-child")
+      .containsOnly("the-grand-child", "the-child", "the-parent", "the-sibling");
+
+    graph.close();
+    for (ClassLoader classloader : graph.getClassloaders().values()) {
+      assertThat(((ClassRealm) classloader).isClosed()).isTrue();
+    }
+    // already closed
+    graph.close();
+  }
+
+  @Test
+  public void cycles_are_closed() throws Exception {
+    ClassloaderGraph graph = new ClassloaderBuilder()
+      .newClassloader("a")
+      .newClassloader("b")
+      .addSibling("a", "b", Mask.ALL)
+      .addSibling("b", "a", Mask.ALL)
+      .buildGraph();
+
+    assertThat(graph.closingOrder()).extracting(ClassRealm::getKey).containsOnly("a", "b");
+    graph.close();
+  }
+
+  @Test
+  public void lookups_fail_after_close() throws Exception {
+    ClassloaderGraph graph = new ClassloaderBuilder()
+      .newClassloader("the-cl")
+      .addURL("the-cl", new File("tester/a.jar").toURL())
+      .buildGraph();
+    ClassLoader classloader = graph.get("the-cl");
+    assertThat(classloader.loadClass("A")).isNotNull();
+    graph.close();
+
+    try {
+      classloader.loadClass("A");
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Classloader ClassRealm{the-cl} is closed");
+    }
+    try {
+      classloader.getResource("a.txt");
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Classloader ClassRealm{the-cl} is closed");
+    }
+    try {
+      classloader.getResources("a.txt");
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Classloader ClassRealm{the-cl} is closed");
+    }
+  }
+
+  @Test
+  public void lookups_through_closed_sibling_fail() throws Exception {
+    ClassloaderGraph graph = new ClassloaderBuilder()
+      .newClassloader("the-sibling")
+      .buildGraph();
+    ClassLoader sibling = graph.get("the-sibling");
+    ClassLoader classloader = new ClassloaderBuilder()
+      .newClassloader("the-cl")
+      .addSibling("the-cl", sibling, Mask.ALL)
+      .build().get("the-cl");
+    graph.close();
+
+    try {
+      classloader.loadClass("A");
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Classloader ClassRealm{the-sibling} is closed");
+    }
+  }
+
+  @Test
+  public void dependents() throws Exception {
+    ClassloaderGraph graph = buildPluginGraph();
+
+    assertThat(graph.getDependents("api")).containsExactly("api", "extension", "other", "plugin");
+    assertThat(graph.getDependents("plugin")).containsExactly("extension", "plugin");
+    assertThat(graph.getDependents("other")).containsExactly("other");
+    try {
+      graph.getDependents("missing");
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("The classloader 'missing' does not exist");
+    }
+  }
+
+  @Test
+  public void rebuild_classloader_and_its_dependents() throws Exception {
+    ClassloaderGraph graph = buildPluginGraph();
+    ClassLoader api = graph.get("api");
+    ClassLoader other = graph.get("other");
+    ClassLoader plugin = graph.get("plugin");
+    ClassLoader extension = graph.get("extension");
+    Class b = api.loadClass("B");
+    assertThat(read(extension.getResource("a.txt"))).isEqualTo("version 1 of a.txt");
+
+    ClassloaderGraph rebuilt = graph.rebuild("plugin", builder -> builder
+      .newClassloader("plugin")
+      .addURL("plugin", url("tester/a_v2.jar"))
+      .setParent("plugin", "api", Mask.ALL)
+      .newClassloader("extension")
+      .addURL("extension", url("tester/c.jar"))
+      .addSibling("extension", "plugin", Mask.ALL));
+
+    assertThat(rebuilt.getClassloaders()).containsOnlyKeys("api", "other", "plugin", "extension");
+    assertThat(rebuilt.get("api")).isSameAs(api);
+    assertThat(rebuilt.get("other")).isSameAs(other);
+    assertThat(rebuilt.get("plugin")).isNotSameAs(plugin);
+    assertThat(rebuilt.get("extension")).isNotSameAs(extension);
+    assertThat(read(rebuilt.get("extension").getResource("a.txt"))).isEqualTo("version 2 of a.txt");
+    assertThat(rebuilt.get("extension").loadClass("B")).isSameAs(b);
+    assertThat(((ClassRealm) plugin).isClosed()).isTrue();
+    assertThat(((ClassRealm) extension).isClosed()).isTrue();
+    assertThat(((ClassRealm) api).isClosed()).isFalse();
+
+    // the reused classloaders belong to the new graph
+    graph.close();
+    assertThat(((ClassRealm) api).isClosed()).isFalse();
+    rebuilt.close();
+    assertThat(((ClassRealm) api).isClosed()).isTrue();
+  }
+
+  @Test
+  public void fail_to_rebuild_if_dependents_are_not_declared() throws Exception {
+    ClassloaderGraph graph = buildPluginGraph();
+
+    try {
+      graph.rebuild("plugin", builder -> builder
+        .newClassloader("plugin")
+        .addURL("plugin", url("tester/a_v2.jar")));
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Fail to rebuild classloader 'plugin'. Classloaders [extension] must be declared again");
+    }
+    // graph is not changed
+    assertThat(read(graph.get("extension").getResource("a.txt"))).isEqualTo("version 1 of a.txt");
+  }
+
+  @Test
+  public void fail_to_rebuild_closed_graph() throws Exception {
+    ClassloaderGraph graph = buildPluginGraph();
+    graph.close();
+
+    try {
+      graph.rebuild("plugin", builder -> {
+      });
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Classloader graph is closed");
+    }
+  }
+
+  @Test
+  public void rebuild_classloader_of_shared_jar_replaced_in_place() throws Exception {
+    for (boolean memoryMapping : new boolean[] {false, true}) {
+      File jar = temp.newFile("pa-" + memoryMapping + ".jar");
+      FileUtils.copyFile(new File("tester/a.jar"), jar);
+      ClassloaderGraph graph = new ClassloaderBuilder()
+        .setJarSharing(true)
+        .setMemoryMapping(memoryMapping)
+        .newClassloader("plugin")
+        .addURL("plugin", jar.toURI().toURL())
+        .buildGraph();
+      assertThat(graph.get("plugin").loadClass("A").getMethod("version1")).isNotNull();
+
+      JarPoolTest.replace(jar, new File("tester/a_v2.jar"));
+      ClassloaderGraph rebuilt = graph.rebuild("plugin", builder -> builder
+        .newClassloader("plugin")
+        .addURL("plugin", url(jar.getPath())));
+
+      assertThat(rebuilt.get("plugin").loadClass("A").getMethod("version2")).isNotNull();
+      assertThat(IOUtils.toString(rebuilt.get("plugin").getResourceAsStream("a.txt"), StandardCharsets.UTF_8)).startsWith("version 2 of a.txt");
+      rebuilt.close();
+    }
+  }
+
+  @Test
+  public void rebuild_even_if_replaced_classloaders_fail_to_close() throws Exception {
+    ClassRealm failing = new ClassRealm("plugin", getClass().getClassLoader()) {
+      @Override
+      public void close() throws IOException {
+        super.close();
+        throw new IOException("Fail to close");
+      }
+    };
+    Map<String, ClassRealm> realms = new HashMap<>();
+    realms.put("plugin", failing);
+    ClassloaderGraph graph = new ClassloaderGraph(realms, new ClassloaderBuilder(), new HoistingReport(), null);
+
+    List<LogRecord> logs = new ArrayList<>();
+    Handler handler = new Handler() {
+      @Override
+      public void publish(LogRecord record) {
+        logs.add(record);
+      }
+
+      @Override
+      public void flush() {
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+    Logger logger = Logger.getLogger(ClassloaderGraph.class.getName());
+    logger.addHandler(handler);
+    logger.setUseParentHandlers(false);
+    try {
+      ClassloaderGraph rebuilt = graph.rebuild("plugin", builder -> builder
+        .newClassloader("plugin")
+        .addURL("plugin", url("tester/a.jar")));
+
+      assertThat(rebuilt.get("plugin").loadClass("A")).isNotNull();
+      assertThat(failing.isClosed()).isTrue();
+      assertThat(logs).hasSize(1);
+      assertThat(logs.get(0).getLevel()).isEqualTo(Level.WARNING);
+      assertThat(logs.get(0).getMessage()).isEqualTo("Fail to close the replaced classloaders [plugin]");
+      assertThat(logs.get(0).getThrown()).hasMessage("Fail to close");
+      rebuilt.close();
+    } finally {
+      logger.removeHandler(handler);
+      logger.setUseParentHandlers(true);
+    }
+  }
+
+  private static ClassloaderGraph buildPluginGraph() throws Exception {
+    return new ClassloaderBuilder()
+      .newClassloader("api")
+      .addURL("api", url("tester/b.jar"))
+      .newClassloader("plugin")
+      .addURL("plugin", url("tester/a.jar"))
+      .setParent("plugin", "api", Mask.ALL)
+      .newClassloader("extension")
+      .addURL("extension", url("tester/c.jar"))
+      .addSibling("extension", "plugin", Mask.ALL)
+      .newClassloader("other")
+      .setParent("other", "api", Mask.ALL)
+      .buildGraph();
+  }
+
+  private static URL url(String path) {
+    try {
+      return new File(path).toURL();
+    } catch (MalformedURLException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  private static String read(URL url) throws Exception {
+    try (InputStream input = url.openStream()) {
+      return IOUtils.toString(input, StandardCharsets.UTF_8).trim();
+    }
+  }
+
+  @Test
+  public void release_jar_url_caches() throws Exception {
+    assertThat(isOpen(openCachedJarFileAndClose(true))).isFalse();
+  }
+
+  @Test
+  public void keep_jar_url_caches_by_default() throws Exception {
+    assertThat(isOpen(openCachedJarFileAndClose(false))).isTrue();
+  }
+
+  private JarFile openCachedJarFileAndClose(boolean release) throws Exception {
+    File jar = temp.newFile("a.jar");
+    FileUtils.copyFile(new File("tester/a.jar"), jar);
+    ClassloaderGraph graph = new ClassloaderBuilder()
+      .setReleaseJarUrlCaches(release)
+      .newClassloader("the-cl")
+      .addURL("the-cl", jar.toURI().toURL())
+      .buildGraph();
+    URL resource = graph.get("the-cl").getResource("a.txt");
+    JarFile cached = ((JarURLConnection) new URL(resource.toString()).openConnection()).getJarFile();
+    graph.close();
+    return cached;
+  }
+
+  private static boolean isOpen(JarFile jarFile) {
+    try {
+      jarFile.size();
+      return true;
+    } catch (IllegalStateException e) {
+      // zip file closed
+      return false;
+    }
+  }
+}
@@ -0,0 +1,307 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class ConstituentHoistingTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  ClassloaderBuilder sut = new ClassloaderBuilder().setConstituentHoisting(true);
+
+  @Test
+  public void hoist_identical_jars() throws Exception {
+    ClassloaderGraph graph = sut
+      .newClassloader("a")
+      .addURL("a", new File("tester/a.jar").toURL())
+      .newClassloader("b")
+      .addURL("b", copyOf("tester/a.jar"))
+      .addResources("b", Collections.singletonMap("org/b/b.txt", ByteBuffer.wrap("b".getBytes(StandardCharsets.UTF_8))))
+      .buildGraph();
+
+    HoistingReport report = graph.getHoistingReport();
+    assertThat(report.getRejected()).isEmpty();
+    assertThat(report.getHoisted()).hasSize(1);
+    HoistingReport.Hoisted hoisted = report.getHoisted().get(0);
+    assertThat(hoisted.getClassloaders()).containsExactly("a", "b");
+    assertThat(hoisted.getURL()).isEqualTo(new File("tester/a.jar").toURL());
+    assertThat(hoisted.getSharedClassloader()).startsWith("a.jar@").hasSize("a.jar@".length() + 8);
+    assertThat(hoisted.toString()).startsWith("Hoisted file:").contains(" of classloaders [a, b] to classloader a.jar@");
+
+    ClassLoader shared = graph.get(hoisted.getSharedClassloader());
+    ClassLoader a = graph.get("a");
+    ClassLoader b = graph.get("b");
+    assertThat(shared).isNotNull();
+    assertThat(a.loadClass("A")).isSameAs(b.loadClass("A"));
+    assertThat(a.loadClass("A").getClassLoader()).isSameAs(shared);
+    assertThat(b.getResource("org/b/b.txt")).isNotNull();
+    assertThat(read(a.getResource("a.txt"))).isEqualTo("version 1 of a.txt");
+    assertThat(b.getResource("a.txt")).isNotNull();
+    // only the resources of the JAR file are exported
+    assertThat(shared.getResource("a.txt")).isNotNull();
+    assertThat(((ClassRealm) shared).getExportMask().getInclusions()).containsOnly("A.class", "A.java", "a.txt", "META-INF/");
+    assertThat(((ClassRealm) shared).getExportMask().getExclusions()).containsOnly("META-INF/MANIFEST.MF");
+    graph.close();
+  }
+
+  @Test
+  public void do_not_hoist_if_disabled() throws Exception {
+    ClassloaderGraph graph = new ClassloaderBuilder()
+      .newClassloader("a")
+      .addURL("a", new File("tester/a.jar").toURL())
+      .newClassloader("b")
+      .addURL("b", new File("tester/a.jar").toURL())
+      .buildGraph();
+
+    assertThat(graph.getHoistingReport().getHoisted()).isEmpty();
+    assertThat(graph.getHoistingReport().getRejected()).isEmpty();
+    assertThat(graph.getClassloaders()).containsOnlyKeys("a", "b");
+    assertThat(graph.get("a").loadClass("A")).isNotSameAs(graph.get("b").loadClass("A"));
+    // empty reports are not shared between graphs
+    assertThat(graph.getHoistingReport()).isNotSameAs(new ClassloaderBuilder().buildGraph().getHoistingReport());
+  }
+
+  @Test
+  public void report_is_unmodifiable() throws Exception {
+    HoistingReport report = sut
+      .newClassloader("a")
+      .addURL("a", new File("tester/a.jar").toURL())
+      .newClassloader("b")
+      .addURL("b", new File("tester/a.jar").toURL())
+      .buildGraph()
+      .getHoistingReport();
+
+    try {
+      report.getHoisted().clear();
+      fail();
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    try {
+      report.getHoisted().get(0).getClassloaders().clear();
+      fail();
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    assertThat(report.getHoisted().get(0).getClassloaders()).containsOnly("a", "b");
+  }
+
+  @Test
+  public void ignore_jars_declared_by_a_single_classloader() throws Exception {
+    ClassloaderGraph graph = sut
+      .newClassloader("a")
+      .addURL("a", new File("tester/a.jar").toURL())
+      .addURL("a", copyOf("tester/a.jar"))
+      .newClassloader("b")
+      .addURL("b", new File("tester/b.jar").toURL())
+      .buildGraph();
+
+    assertThat(graph.getHoistingReport().getHoisted()).isEmpty();
+    assertThat(graph.getHoistingReport().getRejected()).isEmpty();
+  }
+
+  @Test
+  public void reject_classloaders_with_different_bases() throws Exception {
+    ClassloaderGraph graph = sut
+      .newClassloader("a")
+      .addURL("a", new File("tester/a.jar").toURL())
+      .newClassloader("b", ClassLoader.getSystemClassLoader())
+      .addURL("b", new File("tester/a.jar").toURL())
+      .buildGraph();
+
+    assertRejected(graph, "classloaders have different base classloaders");
+    assertThat(graph.get("a").loadClass("A")).isNotSameAs(graph.get("b").loadClass("A"));
+  }
+
+  @Test
+  public void reject_jar_not_accepted_by_masks() throws Exception {
+    ClassloaderGraph graph = sut
+      .newClassloader("a")
+      .addURL("a", new File("tester/a.jar").toURL())
+      .newClassloader("b")
+      .addURL("b", new File("tester/a.jar").toURL())
+      .setMask("b", Mask.builder().exclude("a.txt").build())
+      .buildGraph();
+
+    assertRejected(graph, "classloader b does not accept the resource a.txt");
+  }
+
+  @Test
+  public void reject_jar_whose_directories_are_provided_by_other_constituents() throws Exception {
+    ClassloaderGraph graph = sut
+      .newClassloader("a")
+      .addURL("a", new File("tester/a.jar").toURL())
+      .newClassloader("the-parent")
+      .addURL("the-parent", new File("tester/a_v2.jar").toURL())
+      .newClassloader("b")
+      .addURL("b", new File("tester/a.jar").toURL())
+      .setParent("b", "the-parent", Mask.ALL)
+      .buildGraph();
+
+    assertRejected(graph, "directory '' is also provided by " + new File("tester/a_v2.jar").toURL() + " in classloader the-parent");
+    // parent-first
+    assertThat(graph.get("b").loadClass("A").getClassLoader()).isSameAs(graph.get("the-parent"));
+  }
+
+  @Test
+  public void root_directory_of_directory_entries_does_not_overlap() throws Exception {
+    File jar = temp.newFile("s.jar");
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest("s"))) {
+      out.putNextEntry(new JarEntry("org/"));
+      out.putNextEntry(new JarEntry("org/s/"));
+      MappedJarConstituentTest.putStored(out, "org/s/s.txt", "s".getBytes(StandardCharsets.UTF_8));
+      MappedJarConstituentTest.putStored(out, "META-INF/services/org.s.Service", "org.s.Impl".getBytes(StandardCharsets.UTF_8));
+    }
+    ClassloaderGraph graph = sut
+      .newClassloader("x")
+      .addURL("x", new File("tester/b.jar").toURL())
+      .addURL("x", jar.toURI().toURL())
+      .newClassloader("y")
+      .addURL("y", copyOf(jar.getPath()))
+      .buildGraph();
+
+    assertThat(graph.getHoistingReport().getRejected()).isEmpty();
+    assertThat(graph.getHoistingReport().getHoisted()).hasSize(1);
+    ClassLoader x = graph.get("x");
+    assertThat(read(x.getResource("org/s/s.txt"))).isEqualTo("s");
+    assertThat(x.loadClass("B").getClassLoader()).isSameAs(x);
+
+    // the manifest of the first JAR file of the classloader is still returned first
+    assertThat(x.getResource("META-INF/MANIFEST.MF").toString()).contains("b.jar");
+    // other resources of META-INF of the shared JAR file are returned before the resources of the classloader
+    String shared = graph.getHoistingReport().getHoisted().get(0).getSharedClassloader();
+    assertThat(x.getResource("META-INF/services/org.s.Service")).isEqualTo(graph.get(shared).getResource("META-INF/services/org.s.Service"));
+    graph.close();
+  }
+
+  @Test
+  public void reject_jar_whose_root_resources_are_provided_by_other_constituents() throws Exception {
+    File jar = temp.newFile("r.jar");
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+      MappedJarConstituentTest.putStored(out, "b.txt", "b".getBytes(StandardCharsets.UTF_8));
+    }
+    ClassloaderGraph graph = sut
+      .newClassloader("a")
+      .addURL("a", jar.toURI().toURL())
+      .newClassloader("b")
+      .addURL("b", new File("tester/b.jar").toURL())
+      .addURL("b", jar.toURI().toURL())
+      .buildGraph();
+
+    assertRejected(graph, "resource 'b.txt' is also provided by " + new File("tester/b.jar").toURL() + " in classloader b");
+  }
+
+  @Test
+  public void reject_classloaders_importing_other_classloaders() throws Exception {
+    URLClassLoader foreign = new URLClassLoader(new URL[0], null);
+    ClassloaderGraph graph = sut
+      .newClassloader("a")
+      .addURL("a", new File("tester/a.jar").toURL())
+      .newClassloader("b")
+      .addURL("b", new File("tester/a.jar").toURL())
+      .addSibling("b", foreign, Mask.ALL)
+      .buildGraph();
+
+    assertRejected(graph, "classloader b imports " + foreign + ", which is not created by ClassloaderBuilder");
+  }
+
+  @Test
+  public void reject_jar_referencing_classes_of_other_jars() throws Exception {
+    File jar = temp.newFile("test.jar");
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+      InputStream classFile = getClass().getResourceAsStream("JarPoolTest.class")) {
+      MappedJarConstituentTest.putStored(out, "org/sonar/classloader/JarPoolTest.class", IOUtils.toByteArray(classFile));
+    }
+    ClassloaderGraph graph = sut
+      .newClassloader("a")
+      .addURL("a", jar.toURI().toURL())
+      .newClassloader("b")
+      .addURL("b", jar.toURI().toURL())
+      .buildGraph();
+
+    assertThat(graph.getHoistingReport().getHoisted()).isEmpty();
+    assertThat(graph.getHoistingReport().getRejected()).hasSize(1);
+    assertThat(graph.getHoistingReport().getRejected().get(0).getReason())
+      .startsWith("class org/sonar/classloader/JarPoolTest references ")
+      .endsWith(", which is provided neither by the JAR file nor by the base classloader");
+  }
+
+  @Test
+  public void classes_of_platform_classloader_are_not_visible_from_bootstrap_base() {
+    assertThat(ConstituentHoisting.isVisible("java/lang/String", null, PlatformPackages.of(null))).isTrue();
+    assertThat(ConstituentHoisting.isVisible("java/sql/Date", null, PlatformPackages.of(null))).isFalse();
+    assertThat(ConstituentHoisting.isVisible("org/foo/Missing", null, PlatformPackages.of(null))).isFalse();
+
+    ClassLoader system = ClassLoader.getSystemClassLoader();
+    assertThat(ConstituentHoisting.isVisible("java/sql/Date", system, PlatformPackages.of(system))).isTrue();
+    assertThat(ConstituentHoisting.isVisible("org/sonar/classloader/Mask", system, PlatformPackages.of(system))).isTrue();
+    assertThat(ConstituentHoisting.isVisible("org/foo/Missing", system, PlatformPackages.of(system))).isFalse();
+  }
+
+  private static void assertRejected(ClassloaderGraph graph, String reason) throws Exception {
+    HoistingReport report = graph.getHoistingReport();
+    assertThat(report.getHoisted()).isEmpty();
+    assertThat(report.getRejected()).hasSize(1);
+    HoistingReport.Rejected rejected = report.getRejected().get(0);
+    assertThat(rejected.getClassloaders()).contains("a", "b");
+    assertThat(rejected.getReason()).isEqualTo(reason);
+    assertThat(rejected.toString()).startsWith("Did not hoist file:").endsWith(reason);
+  }
+
+  private URL copyOf(String path) throws Exception {
+    File copy = new File(temp.newFolder(), new File(path).getName());
+    FileUtils.copyFile(new File(path), copy);
+    return copy.toURI().toURL();
+  }
+
+  private static String read(URL url) throws Exception {
+    try (InputStream input = url.openStream()) {
+      return IOUtils.toString(input, "UTF-8").trim();
+    }
+  }
+
+  private static Manifest manifest(String name) {
+    Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    manifest.getMainAttributes().putValue("Implementation-Title", name);
+    return manifest;
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConstituentTest {
+
+  @Test
+  public void directory_of_resource() {
+    assertThat(Constituent.directoryOf("org/foo/Bar.class")).isEqualTo("org/foo");
+    assertThat(Constituent.directoryOf("org/foo/sub/")).isEqualTo("org/foo");
+    assertThat(Constituent.directoryOf("org/")).isEmpty();
+    assertThat(Constituent.directoryOf("Bar.class")).isEmpty();
+    assertThat(Constituent.directoryOf("")).isEmpty();
+  }
+
+  @Test
+  public void encode_path() {
+    assertThat(Constituent.encodePath("org/foo/Bar$1.class")).isEqualTo("org/foo/Bar$1.class");
+    assertThat(Constituent.encodePath("org/foo/my config.xml")).isEqualTo("org/foo/my%20config.xml");
+    assertThat(Constituent.encodePath("org/été.txt")).isEqualTo("org/%C3%A9t%C3%A9.txt");
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DefaultClassloaderRefTest {
+
+  CountingClassloader target = new CountingClassloader();
+
+  @Test
+  public void misses_are_not_cached_by_default() {
+    DefaultClassloaderRef ref = new DefaultClassloaderRef(target, Mask.ALL);
+
+    assertThat(ref.loadClassIfPresent("org.foo.Missing", new VisitedRealms())).isNull();
+    assertThat(ref.loadClassIfPresent("org.foo.Missing", new VisitedRealms())).isNull();
+    assertThat(target.calls.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void cached_misses_do_not_call_target_classloader() {
+    DefaultClassloaderRef ref = new DefaultClassloaderRef(target, Mask.ALL).setNegativeCacheSize(10);
+
+    assertThat(ref.loadClassIfPresent("org.foo.Missing", new VisitedRealms())).isNull();
+    assertThat(ref.loadClassIfPresent("org.foo.Missing", new VisitedRealms())).isNull();
+    assertThat(target.calls.get()).isEqualTo(1);
+
+    // hits are not cached
+    assertThat(ref.loadClassIfPresent(String.class.getName(), new VisitedRealms())).isSameAs(String.class);
+    assertThat(ref.loadClassIfPresent(String.class.getName(), new VisitedRealms())).isSameAs(String.class);
+    assertThat(target.calls.get()).isEqualTo(3);
+  }
+
+  @Test
+  public void least_recently_used_misses_are_evicted() {
+    DefaultClassloaderRef ref = new DefaultClassloaderRef(target, Mask.ALL).setNegativeCacheSize(2);
+
+    ref.loadClassIfPresent("Missing1", new VisitedRealms());
+    ref.loadClassIfPresent("Missing2", new VisitedRealms());
+    ref.loadClassIfPresent("Missing1", new VisitedRealms());
+    ref.loadClassIfPresent("Missing3", new VisitedRealms());
+    assertThat(target.calls.get()).isEqualTo(3);
+
+    // Missing2 has been evicted
+    ref.loadClassIfPresent("Missing1", new VisitedRealms());
+    ref.loadClassIfPresent("Missing3", new VisitedRealms());
+    ref.loadClassIfPresent("Missing2", new VisitedRealms());
+    assertThat(target.calls.get()).isEqualTo(4);
+  }
+
+  @Test
+  public void invalidate_cached_misses() {
+    DefaultClassloaderRef ref = new DefaultClassloaderRef(target, Mask.ALL).setNegativeCacheSize(10);
+    ref.loadClassIfPresent("org.foo.Missing", new VisitedRealms());
+
+    ref.invalidateCaches();
+    ref.loadClassIfPresent("org.foo.Missing", new VisitedRealms());
+
+    assertThat(target.calls.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void names_rejected_by_mask_do_not_call_target_classloader() {
+    DefaultClassloaderRef ref = new DefaultClassloaderRef(target, Mask.NONE).setNegativeCacheSize(10);
+
+    assertThat(ref.loadClassIfPresent(String.class.getName(), new VisitedRealms())).isNull();
+    assertThat(target.calls.get()).isZero();
+  }
+
+  private static class CountingClassloader extends ClassLoader {
+    private final AtomicInteger calls = new AtomicInteger();
+
+    CountingClassloader() {
+      super(String.class.getClassLoader());
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+      calls.incrementAndGet();
+      return super.loadClass(name, resolve);
+    }
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IndexCacheTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void reload_directories_of_unchanged_jar() throws Exception {
+    File jar = temp.newFile("a.jar");
+    FileUtils.copyFile(new File("tester/a.jar"), jar);
+    File cacheFile = new File(temp.getRoot(), "cache/index.bin");
+
+    IndexCache cache = IndexCache.load(cacheFile);
+    assertThat(cache.size()).isZero();
+    Constituent scanned = Constituent.open(jar.toURI().toURL(), false, cache);
+    assertThat(scanned).isInstanceOf(JarConstituent.class);
+    cache.save();
+    assertThat(cacheFile).isFile();
+
+    IndexCache reloaded = IndexCache.load(cacheFile);
+    assertThat(reloaded.size()).isEqualTo(1);
+    Constituent indexed = Constituent.open(jar.toURI().toURL(), false, reloaded);
+    assertThat(indexed).isInstanceOf(IndexedJarConstituent.class);
+    assertThat(indexed.getDirectories()).isEqualTo(scanned.getDirectories());
+    assertThat(((IndexedJarConstituent) indexed).isOpened()).isFalse();
+
+    assertThat(indexed.findEntry("A.class").getURL()).isEqualTo(scanned.findEntry("A.class").getURL());
+    assertThat(((IndexedJarConstituent) indexed).isOpened()).isTrue();
+    scanned.close();
+    indexed.close();
+  }
+
+  @Test
+  public void scan_again_changed_jar() throws Exception {
+    File jar = temp.newFile("test.jar");
+    writeJar(jar, "foo/A.txt");
+    long lastModified = jar.lastModified();
+    File cacheFile = temp.newFile("index.bin");
+    IndexCache cache = IndexCache.load(cacheFile);
+    Constituent.open(jar.toURI().toURL(), false, cache).close();
+    cache.save();
+
+    // same size, but different entries and modification time
+    writeJar(jar, "bar/A.txt");
+    assertThat(jar.setLastModified(lastModified + 2_000L)).isTrue();
+
+    IndexCache reloaded = IndexCache.load(cacheFile);
+    Constituent constituent = Constituent.open(jar.toURI().toURL(), false, reloaded);
+    assertThat(constituent).isInstanceOf(JarConstituent.class);
+    assertThat(constituent.getDirectories()).containsOnly("bar");
+    constituent.close();
+  }
+
+  @Test
+  public void scan_again_jar_rewritten_without_changing_attributes() throws Exception {
+    File jar = temp.newFile("test.jar");
+    writeJar(jar, "foo/A.txt");
+    FileTime lastModified = Files.getLastModifiedTime(jar.toPath());
+    File cacheFile = temp.newFile("index.bin");
+    IndexCache cache = IndexCache.load(cacheFile);
+    Constituent.open(jar.toURI().toURL(), false, cache).close();
+    cache.save();
+
+    // same size, modification time and file key, but different central directory
+    writeJar(jar, "bar/A.txt");
+    Files.setLastModifiedTime(jar.toPath(), lastModified);
+
+    IndexCache reloaded = IndexCache.load(cacheFile);
+    Constituent constituent = Constituent.open(jar.toURI().toURL(), false, reloaded);
+    assertThat(constituent).isInstanceOf(JarConstituent.class);
+    assertThat(constituent.getDirectories()).containsOnly("bar");
+    constituent.close();
+  }
+
+  @Test
+  public void forget_jar_changed_after_build_when_graph_is_closed() throws Exception {
+    File jar = temp.newFile("test.jar");
+    writeJar(jar, "foo/A.txt");
+    File cacheFile = temp.newFile("index.bin");
+    IndexCache cache = IndexCache.load(cacheFile);
+    Constituent.open(jar.toURI().toURL(), false, cache).close();
+    cache.save();
+
+    ClassloaderGraph graph = new ClassloaderBuilder()
+      .setIndexCache(cacheFile)
+      .newClassloader("the-cl")
+      .addURL("the-cl", jar.toURI().toURL())
+      .buildGraph();
+    writeJar(jar, "bar/A.txt");
+
+    // the directories are validated when the JAR file is opened, but the cache file is not written during lookups
+    assertThat(graph.get("the-cl").getResource("foo/A.txt")).isNull();
+    assertThat(IndexCache.load(cacheFile).size()).isEqualTo(1);
+
+    graph.close();
+    assertThat(IndexCache.load(cacheFile).size()).isZero();
+  }
+
+  @Test
+  public void ignore_invalid_cache_file() throws Exception {
+    File jar = temp.newFile("a.jar");
+    FileUtils.copyFile(new File("tester/a.jar"), jar);
+    File cacheFile = temp.newFile("index.bin");
+    IndexCache cache = IndexCache.load(cacheFile);
+    Constituent.open(jar.toURI().toURL(), false, cache).close();
+    cache.save();
+
+    byte[] bytes = FileUtils.readFileToByteArray(cacheFile);
+    bytes[bytes.length / 2] ^= 1;
+    FileUtils.writeByteArrayToFile(cacheFile, bytes);
+    assertThat(IndexCache.load(cacheFile).size()).isZero();
+
+    FileUtils.write(cacheFile, "not a cache", StandardCharsets.UTF_8);
+    IndexCache rebuilt = IndexCache.load(cacheFile);
+    assertThat(rebuilt.size()).isZero();
+    Constituent.open(jar.toURI().toURL(), false, rebuilt).close();
+    rebuilt.save();
+    assertThat(IndexCache.load(cacheFile).size()).isEqualTo(1);
+  }
+
+  @Test
+  public void forget_deleted_jar() throws Exception {
+    File jar = temp.newFile("a.jar");
+    FileUtils.copyFile(new File("tester/a.jar"), jar);
+    File cacheFile = temp.newFile("index.bin");
+    IndexCache cache = IndexCache.load(cacheFile);
+    Constituent.open(jar.toURI().toURL(), false, cache).close();
+    cache.save();
+
+    assertThat(jar.delete()).isTrue();
+    IndexCache reloaded = IndexCache.load(cacheFile);
+    reloaded.save();
+    assertThat(IndexCache.load(cacheFile).size()).isZero();
+  }
+
+  private static void writeJar(File file, String entryName) throws IOException {
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file))) {
+      out.putNextEntry(new JarEntry(entryName));
+      out.write("content".getBytes(StandardCharsets.UTF_8));
+      out.closeEntry();
+    }
+  }
+}
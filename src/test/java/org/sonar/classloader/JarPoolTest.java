@@ -0,0 +1,174 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JarPoolTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  JarPool underTest = new JarPool();
+  AtomicInteger opened = new AtomicInteger();
+  AtomicInteger closed = new AtomicInteger();
+
+  @Test
+  public void share_jar_file_until_last_handle_is_closed() throws Exception {
+    URL url = new File("tester/a.jar").toURL();
+
+    Constituent first = underTest.open(url, opener(url));
+    Constituent second = underTest.open(url, opener(url));
+
+    assertThat(opened.get()).isEqualTo(1);
+    assertThat(underTest.getFiles()).containsOnly(new File("tester/a.jar").getCanonicalFile());
+    assertThat(first.getURL()).isEqualTo(url);
+    assertThat(first.getDirectories()).containsOnly("", "META-INF");
+    assertThat(second.findEntry("a.txt")).isNotNull();
+
+    first.close();
+    // closing twice releases once
+    first.close();
+    assertThat(closed.get()).isEqualTo(0);
+    assertThat(second.findEntry("a.txt")).isNotNull();
+
+    second.close();
+    assertThat(closed.get()).isEqualTo(1);
+    assertThat(underTest.getFiles()).isEmpty();
+  }
+
+  @Test
+  public void reopen_jar_file_once_released() throws Exception {
+    URL url = new File("tester/a.jar").toURL();
+
+    underTest.open(url, opener(url)).close();
+    Constituent reopened = underTest.open(url, opener(url));
+
+    assertThat(opened.get()).isEqualTo(2);
+    assertThat(reopened.findEntry("a.txt")).isNotNull();
+    reopened.close();
+    assertThat(closed.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void do_not_share_directories() throws Exception {
+    URL url = new File("tester/a/").toURL();
+
+    Constituent first = underTest.open(url, opener(url));
+    Constituent second = underTest.open(url, opener(url));
+
+    assertThat(opened.get()).isEqualTo(2);
+    assertThat(underTest.getFiles()).isEmpty();
+    assertThat(first).isNotSameAs(second);
+  }
+
+  @Test
+  public void do_not_share_jar_file_declared_by_different_urls() throws Exception {
+    URL url = new File("tester/a.jar").toURL();
+    URL other = new File("tester/../tester/a.jar").toURL();
+
+    Constituent first = underTest.open(url, opener(url));
+    Constituent second = underTest.open(other, opener(other));
+
+    assertThat(opened.get()).isEqualTo(2);
+    assertThat(first.getURL()).isEqualTo(url);
+    assertThat(second.getURL()).isEqualTo(other);
+    assertThat(second.findEntry("a.txt").getURL().toString()).startsWith("jar:" + other);
+    second.close();
+    first.close();
+    assertThat(closed.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void reopen_jar_file_replaced_while_shared() throws Exception {
+    File jar = temp.newFile("pa.jar");
+    FileUtils.copyFile(new File("tester/a.jar"), jar);
+    URL url = jar.toURI().toURL();
+    Constituent previous = underTest.open(url, opener(url));
+    assertThat(read(previous, "a.txt")).startsWith("version 1");
+
+    replace(jar, new File("tester/a_v2.jar"));
+    Constituent replaced = underTest.open(url, opener(url));
+
+    assertThat(opened.get()).isEqualTo(2);
+    assertThat(read(replaced, "a.txt")).startsWith("version 2");
+    Constituent sharedWithReplaced = underTest.open(url, opener(url));
+    assertThat(opened.get()).isEqualTo(2);
+    sharedWithReplaced.close();
+
+    // releasing the previous version does not release the new one
+    previous.close();
+    assertThat(closed.get()).isEqualTo(1);
+    assertThat(underTest.getFiles()).containsOnly(jar.getCanonicalFile());
+    assertThat(read(replaced, "a.txt")).startsWith("version 2");
+  }
+
+  static void replace(File target, File newContent) throws IOException {
+    File tmp = new File(target.getParentFile(), target.getName() + ".tmp");
+    FileUtils.copyFile(newContent, tmp);
+    Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static String read(Constituent constituent, String name) throws IOException {
+    ByteBuffer bytes = constituent.findEntry(name).getBytes();
+    byte[] array = new byte[bytes.remaining()];
+    bytes.get(array);
+    return new String(array, StandardCharsets.UTF_8);
+  }
+
+  private Callable<Constituent> opener(URL url) {
+    return () -> {
+      opened.incrementAndGet();
+      Constituent constituent = Constituent.open(url);
+      return new Constituent(url) {
+        @Override
+        Set<String> getDirectories() {
+          return constituent.getDirectories();
+        }
+
+        @Override
+        Entry findEntry(String name) throws IOException {
+          return constituent.findEntry(name);
+        }
+
+        @Override
+        public void close() throws IOException {
+          closed.incrementAndGet();
+          constituent.close();
+        }
+      };
+    };
+  }
+}
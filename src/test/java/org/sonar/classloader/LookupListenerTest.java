@@ -0,0 +1,151 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.junit.Assert.fail;
+
+public class LookupListenerTest {
+
+  List<LookupEvent> events = Collections.synchronizedList(new ArrayList<LookupEvent>());
+  ClassloaderBuilder sut = new ClassloaderBuilder();
+
+  private Map<String, ClassLoader> newGraph() throws Exception {
+    return sut
+      .newClassloader("the-parent")
+      .addURL("the-parent", new File("tester/a.jar").toURL())
+      .newClassloader("sib1")
+      .newClassloader("sib2")
+      .addURL("sib2", new File("tester/b.jar").toURL())
+      .newClassloader("the-child")
+      .addURL("the-child", new File("tester/c.jar").toURL())
+      .setParent("the-child", "the-parent", Mask.ALL)
+      .addSibling("the-child", "sib1", Mask.ALL)
+      .addSibling("the-child", "sib2", Mask.ALL)
+      .setLookupListener("the-child", events::add)
+      .build();
+  }
+
+  @Test
+  public void notify_source_of_classes() throws Exception {
+    ClassLoader child = newGraph().get("the-child");
+
+    child.loadClass("B");
+    assertEvent(LookupEvent.Type.CLASS, "B", LookupEvent.Source.SIBLING, 1, 2);
+    child.loadClass("A");
+    assertEvent(LookupEvent.Type.CLASS, "A", LookupEvent.Source.PARENT, -1, 3);
+    child.loadClass("C");
+    assertEvent(LookupEvent.Type.CLASS, "C", LookupEvent.Source.SELF, -1, 3);
+    child.loadClass("java.lang.String");
+    assertEvent(LookupEvent.Type.CLASS, "java.lang.String", LookupEvent.Source.BASE, -1, 0);
+    try {
+      child.loadClass("Missing");
+      fail();
+    } catch (ClassNotFoundException e) {
+      assertEvent(LookupEvent.Type.CLASS, "Missing", LookupEvent.Source.NOT_FOUND, -1, 3);
+    }
+
+    LookupEvent event = events.get(0);
+    assertThat(event.getClassloader()).isSameAs(child);
+    assertThat(event.getDurationNanos()).isGreaterThanOrEqualTo(0L);
+    assertThat(event.toString()).startsWith("LookupEvent{the-child CLASS B in ClassRealm{the-child} from SIBLING 1, 2 refs probed");
+  }
+
+  @Test
+  public void notify_source_of_resources() throws Exception {
+    ClassLoader child = newGraph().get("the-child");
+
+    child.getResource("a.txt");
+    assertEvent(LookupEvent.Type.RESOURCE, "a.txt", LookupEvent.Source.PARENT, -1, 3);
+    child.getResource("missing.txt");
+    assertEvent(LookupEvent.Type.RESOURCE, "missing.txt", LookupEvent.Source.NOT_FOUND, -1, 3);
+    assertThat(Collections.list(child.getResources("META-INF/MANIFEST.MF"))).hasSize(3);
+    assertEvent(LookupEvent.Type.RESOURCES, "META-INF/MANIFEST.MF", LookupEvent.Source.SIBLING, 1, 3);
+  }
+
+  @Test
+  public void classes_already_loaded_are_attributed_to_their_defining_classloader() throws Exception {
+    ClassLoader child = newGraph().get("the-child");
+
+    child.loadClass("C");
+    assertEvent(LookupEvent.Type.CLASS, "C", LookupEvent.Source.SELF, -1, 3);
+    child.loadClass("C");
+    assertEvent(LookupEvent.Type.CLASS, "C", LookupEvent.Source.SELF, -1, 0);
+    // the superclass loaded when defining C
+    assertThat(events).extracting(LookupEvent::getName, LookupEvent::getSource).containsExactly(
+      tuple("java.lang.Object", LookupEvent.Source.BASE),
+      tuple("C", LookupEvent.Source.SELF),
+      tuple("C", LookupEvent.Source.SELF));
+  }
+
+  @Test
+  public void resources_are_traced_lazily() throws Exception {
+    ClassLoader child = newGraph().get("the-child");
+
+    Enumeration<URL> urls = child.getResources("META-INF/MANIFEST.MF");
+    assertThat(urls.hasMoreElements()).isTrue();
+    urls.nextElement();
+    // the lookup completes when the enumeration is exhausted
+    assertThat(events).isEmpty();
+
+    assertThat(Collections.list(urls)).hasSize(2);
+    assertEvent(LookupEvent.Type.RESOURCES, "META-INF/MANIFEST.MF", LookupEvent.Source.SIBLING, 1, 3);
+    assertThat(urls.hasMoreElements()).isFalse();
+    assertThat(events).hasSize(1);
+  }
+
+  @Test
+  public void routes_decrease_probes() throws Exception {
+    sut.setPackageRouting(true);
+    ClassLoader child = newGraph().get("the-child");
+    // the empty sibling "sib1" is not probed
+    child.loadClass("C");
+    assertEvent(LookupEvent.Type.CLASS, "C", LookupEvent.Source.SELF, -1, 2);
+  }
+
+  @Test
+  public void classloaders_without_listener_are_not_measured() throws Exception {
+    Map<String, ClassLoader> classloaders = newGraph();
+    classloaders.get("the-parent").loadClass("A");
+    classloaders.get("sib2").getResource("b.txt");
+    assertThat(events).isEmpty();
+  }
+
+  private void assertEvent(LookupEvent.Type type, String name, LookupEvent.Source source, int siblingIndex, int probedRefs) {
+    assertThat(events).isNotEmpty();
+    LookupEvent event = events.get(events.size() - 1);
+    assertThat(event.getKey()).isEqualTo("the-child");
+    assertThat(event.getType()).isEqualTo(type);
+    assertThat(event.getName()).isEqualTo(name);
+    assertThat(event.getSource()).isEqualTo(source);
+    assertThat(event.getSiblingIndex()).isEqualTo(siblingIndex);
+    assertThat(event.getProbedRefs()).isEqualTo(probedRefs);
+  }
+}
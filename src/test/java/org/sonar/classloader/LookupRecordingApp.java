@@ -0,0 +1,44 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * Application started by {@link LookupRecordingTest} in a JVM without the module jdk.jfr. Loads the class A of
+ * the JAR file given as argument, without and with a listener of lookups.
+ */
+public class LookupRecordingApp {
+
+  public static void main(String[] args) throws Exception {
+    Map<String, ClassLoader> classloaders = new ClassloaderBuilder()
+      .newClassloader("the-cl")
+      .addURL("the-cl", new File(args[0]).toURI().toURL())
+      .newClassloader("the-listened-cl")
+      .addURL("the-listened-cl", new File(args[0]).toURI().toURL())
+      .setLookupListener("the-listened-cl", event -> System.out.println("lookup of " + event.getName() + " in " + event.getSource()))
+      .build();
+
+    System.out.println("JFR available: " + LookupRecording.JFR_AVAILABLE);
+    System.out.println("loaded " + classloaders.get("the-cl").loadClass("A").getName());
+    classloaders.get("the-listened-cl").loadClass("A");
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LookupRecordingTest {
+
+  @Test
+  public void jfr_is_available_in_default_runtime() {
+    assertThat(LookupRecording.JFR_AVAILABLE).isTrue();
+  }
+
+  @Test
+  public void lookups_are_not_recorded_without_module_jdk_jfr() throws Exception {
+    String classpath = codeSource(ClassloaderBuilder.class) + File.pathSeparator + codeSource(LookupRecordingApp.class);
+
+    String output = run("--limit-modules", "java.base,java.logging", "-cp", classpath, LookupRecordingApp.class.getName(), "tester/a.jar");
+
+    assertThat(output).contains("JFR available: false", "loaded A", "lookup of A in SELF");
+  }
+
+  private static String run(String... args) throws IOException, InterruptedException {
+    List<String> command = new ArrayList<>();
+    command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+    command.addAll(Arrays.asList(args));
+    Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+    String output = IOUtils.toString(process.getInputStream(), StandardCharsets.UTF_8);
+    assertThat(process.waitFor()).as(output).isZero();
+    return output;
+  }
+
+  private static String codeSource(Class clazz) throws Exception {
+    return new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class LruCacheTest {
+
+  @Test
+  public void evict_entries_that_are_not_used() {
+    LruCache<String, Integer> cache = new LruCache<>(3);
+    cache.put("a", 1);
+    cache.put("b", 2);
+    cache.put("c", 3);
+    assertThat(cache.get("a")).isEqualTo(1);
+
+    cache.put("d", 4);
+
+    assertThat(cache.size()).isEqualTo(3);
+    // "a" has been used since inserted
+    assertThat(cache.get("a")).isEqualTo(1);
+    assertThat(cache.get("b")).isNull();
+    assertThat(cache.get("c")).isEqualTo(3);
+    assertThat(cache.get("d")).isEqualTo(4);
+  }
+
+  @Test
+  public void replace_value() {
+    LruCache<String, Integer> cache = new LruCache<>(2);
+    cache.put("a", 1);
+    cache.put("a", 2);
+
+    assertThat(cache.get("a")).isEqualTo(2);
+    assertThat(cache.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void clear() {
+    LruCache<String, Integer> cache = new LruCache<>(2);
+    cache.put("a", 1);
+    cache.clear();
+
+    assertThat(cache.get("a")).isNull();
+    assertThat(cache.size()).isZero();
+    cache.put("b", 2);
+    cache.put("c", 3);
+    cache.put("d", 4);
+    assertThat(cache.size()).isEqualTo(2);
+  }
+
+  @Test
+  public void size_is_bounded_under_concurrent_puts() throws Exception {
+    LruCache<Integer, Boolean> cache = new LruCache<>(100);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> tasks = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        int offset = t * 10_000;
+        tasks.add(executor.submit(() -> {
+          for (int i = 0; i < 10_000; i++) {
+            cache.put(offset + i, Boolean.TRUE);
+            cache.get(offset + i / 2);
+          }
+        }));
+      }
+      for (Future<?> task : tasks) {
+        task.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    // the last put that exceeds the maximum evicts the exceeding entries
+    cache.put(-1, Boolean.TRUE);
+    assertThat(cache.size()).isLessThanOrEqualTo(100);
+  }
+
+  @Test
+  public void fail_if_max_size_is_not_positive() {
+    try {
+      new LruCache<String, String>(0);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("Max size of cache must be positive: 0");
+    }
+  }
+}
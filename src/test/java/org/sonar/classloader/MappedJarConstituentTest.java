@@ -0,0 +1,247 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class MappedJarConstituentTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void read_stored_and_deflated_entries() throws Exception {
+    File file = temp.newFile("test.jar");
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file), manifest("Implementation-Title", "test"))) {
+      putStored(out, "org/foo/Stored.txt", "stored content");
+      putDeflated(out, "org/foo/sub/Deflated.txt", "deflated content");
+      putDeflated(out, "org/bar/", "");
+      putDeflated(out, "Root.txt", "root");
+      putDeflated(out, "org/été.txt", "accents");
+    }
+    URL url = file.toURI().toURL();
+
+    try (MappedJarConstituent mapped = MappedJarConstituent.map(url, file);
+      JarConstituent jar = new JarConstituent(url, new JarFile(file), null)) {
+      assertThat(mapped.getDirectories()).containsExactlyInAnyOrderElementsOf(jar.getDirectories());
+      assertThat(mapped.getManifest().getMainAttributes().getValue("Implementation-Title")).isEqualTo("test");
+
+      for (String name : new String[] {"org/foo/Stored.txt", "org/foo/sub/Deflated.txt", "Root.txt", "org/été.txt"}) {
+        Constituent.Entry entry = mapped.findEntry(name);
+        Constituent.Entry expected = jar.findEntry(name);
+        assertThat(toString(entry.getBytes())).isEqualTo(toString(expected.getBytes()));
+        assertThat(entry.getURL().toString()).isEqualTo(expected.getURL().toString());
+        assertThat(entry.getURL()).isEqualTo(expected.getURL());
+        try (InputStream input = entry.getURL().openStream()) {
+          assertThat(IOUtils.toString(input, StandardCharsets.UTF_8)).isEqualTo(toString(expected.getBytes()));
+        }
+        assertThat(entry.getManifest()).isSameAs(mapped.getManifest());
+      }
+      assertThat(mapped.findEntry("org/foo/Missing.txt")).isNull();
+      assertThat(mapped.findEntry("org/foo")).isNull();
+    }
+  }
+
+  @Test
+  public void stored_entries_are_not_copied() throws Exception {
+    File file = temp.newFile("test.jar");
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file))) {
+      putStored(out, "org/foo/Stored.txt", "stored content");
+    }
+
+    try (MappedJarConstituent mapped = MappedJarConstituent.map(file.toURI().toURL(), file)) {
+      ByteBuffer bytes = mapped.findEntry("org/foo/Stored.txt").getBytes();
+      assertThat(bytes.isDirect()).isTrue();
+      assertThat(bytes.isReadOnly()).isTrue();
+      assertThat(toString(bytes)).isEqualTo("stored content");
+    }
+  }
+
+  @Test
+  public void signed_jar_is_not_mapped() throws Exception {
+    File file = temp.newFile("signed.jar");
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file))) {
+      putDeflated(out, "META-INF/SIGNER.SF", "Signature-Version: 1.0");
+      putDeflated(out, "org/foo/Foo.txt", "foo");
+    }
+
+    assertThat(MappedJarConstituent.map(file.toURI().toURL(), file)).isNull();
+    try (Constituent constituent = Constituent.open(file.toURI().toURL(), true)) {
+      assertThat(constituent).isInstanceOf(JarConstituent.class);
+    }
+  }
+
+  @Test
+  public void jar_with_class_path_is_opened_by_jdk() throws Exception {
+    File file = temp.newFile("classpath.jar");
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file), manifest(Attributes.Name.CLASS_PATH.toString(), "other.jar"))) {
+      putDeflated(out, "org/foo/Foo.txt", "foo");
+    }
+
+    try (Constituent constituent = Constituent.open(file.toURI().toURL(), true)) {
+      assertThat(constituent).isInstanceOf(UrlConstituent.class);
+    }
+  }
+
+  @Test
+  public void invalid_jar_is_empty() throws Exception {
+    File file = temp.newFile("invalid.jar");
+    FileUtils.write(file, "not a zip", StandardCharsets.UTF_8);
+
+    try (Constituent constituent = Constituent.open(file.toURI().toURL(), true)) {
+      assertThat(constituent).isInstanceOf(EmptyConstituent.class);
+    }
+  }
+
+  @Test
+  public void closed_constituent_can_not_be_read() throws Exception {
+    File file = temp.newFile("test.jar");
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file))) {
+      putStored(out, "org/foo/Stored.txt", "stored content");
+    }
+    MappedJarConstituent mapped = MappedJarConstituent.map(file.toURI().toURL(), file);
+    Constituent.Entry entry = mapped.findEntry("org/foo/Stored.txt");
+    mapped.close();
+
+    try {
+      entry.getBytes();
+      fail();
+    } catch (IOException e) {
+      assertThat(e).hasMessageContaining("Constituent is closed");
+    }
+  }
+
+  @Test
+  public void read_nested_jars() throws Exception {
+    File file = temp.newFile("plugin.jar");
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file))) {
+      putStored(out, "META-INF/lib/a.jar", FileUtils.readFileToByteArray(new File("tester/a.jar")));
+      out.putNextEntry(new JarEntry("META-INF/lib/b.jar"));
+      FileUtils.copyFile(new File("tester/b.jar"), out);
+      out.closeEntry();
+    }
+    String base = "jar:" + file.toURI() + "!/META-INF/lib/";
+
+    try (Constituent stored = Constituent.open(new URL(base + "a.jar"));
+      Constituent deflated = Constituent.open(new URL(base + "b.jar"))) {
+      assertThat(stored).isInstanceOf(MappedJarConstituent.class);
+      assertThat(stored.getDirectories()).containsOnly("", "META-INF");
+      Constituent.Entry entry = stored.findEntry("a.txt");
+      assertThat(entry.getURL().toString()).isEqualTo("jar:" + base + "a.jar!/a.txt");
+      try (InputStream input = entry.getURL().openStream()) {
+        assertThat(IOUtils.toString(input, StandardCharsets.UTF_8)).startsWith("version 1 of a.txt");
+      }
+
+      assertThat(deflated).isInstanceOf(MappedJarConstituent.class);
+      assertThat(toString(deflated.findEntry("b.txt").getBytes())).isNotEmpty();
+      assertThat(deflated.findEntry("a.txt")).isNull();
+    }
+  }
+
+  @Test
+  public void missing_nested_jar_is_empty() throws Exception {
+    File file = temp.newFile("plugin.jar");
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file))) {
+      putStored(out, "META-INF/lib/a.jar", FileUtils.readFileToByteArray(new File("tester/a.jar")));
+    }
+
+    try (Constituent missing = Constituent.open(new URL("jar:" + file.toURI() + "!/META-INF/lib/missing.jar"));
+      Constituent missingOuter = Constituent.open(new URL("jar:file:/missing/plugin.jar!/META-INF/lib/a.jar"));
+      Constituent directory = Constituent.open(new URL("jar:" + file.toURI() + "!/META-INF/lib/"))) {
+      assertThat(missing).isInstanceOf(EmptyConstituent.class);
+      assertThat(missingOuter).isInstanceOf(EmptyConstituent.class);
+      assertThat(directory).isInstanceOf(UrlConstituent.class);
+    }
+  }
+
+  @Test
+  public void fail_to_open_invalid_nested_jar() throws Exception {
+    File file = temp.newFile("plugin.jar");
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file))) {
+      putStored(out, "META-INF/lib/invalid.jar", "not a jar".getBytes(StandardCharsets.UTF_8));
+    }
+    URL url = new URL("jar:" + file.toURI() + "!/META-INF/lib/invalid.jar");
+
+    try {
+      Constituent.open(url);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Fail to open nested JAR file " + url);
+      assertThat(e.getCause()).isInstanceOf(IOException.class);
+    }
+  }
+
+  private static Manifest manifest(String key, String value) {
+    Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    manifest.getMainAttributes().putValue(key, value);
+    return manifest;
+  }
+
+  private static void putStored(JarOutputStream out, String name, String content) throws IOException {
+    putStored(out, name, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  static void putStored(JarOutputStream out, String name, byte[] bytes) throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+    JarEntry entry = new JarEntry(name);
+    entry.setMethod(ZipEntry.STORED);
+    entry.setSize(bytes.length);
+    entry.setCompressedSize(bytes.length);
+    entry.setCrc(crc.getValue());
+    out.putNextEntry(entry);
+    out.write(bytes);
+    out.closeEntry();
+  }
+
+  private static void putDeflated(JarOutputStream out, String name, String content) throws IOException {
+    out.putNextEntry(new JarEntry(name));
+    out.write(content.getBytes(StandardCharsets.UTF_8));
+    out.closeEntry();
+  }
+
+  private static String toString(ByteBuffer bytes) {
+    byte[] array = new byte[bytes.remaining()];
+    bytes.duplicate().get(array);
+    return new String(array, StandardCharsets.UTF_8);
+  }
+}
@@ -167,4 +167,44 @@ public class MaskTest {
 
     assertThat(mask.getInclusions()).containsOnly("org/foo/sub/", "org/bar/sub/");
   }
+
+  @Test
+  public void mask_is_not_changed_by_builder_after_build() throws Exception {
+    Mask.Builder builder = Mask.builder().include("org/foo/");
+    Mask mask = builder.build();
+    builder.include("org/bar/");
+
+    assertThat(mask.getInclusions()).containsOnly("org/foo/");
+    assertThat(mask.acceptResource("org/bar/Bar.class")).isFalse();
+  }
+
+  @Test
+  public void many_patterns() throws Exception {
+    Mask.Builder builder = Mask.builder();
+    for (int i = 0; i < 1_000; i++) {
+      builder.include("org/sonar/api/p" + i + "/");
+    }
+    Mask mask = builder.exclude("org/sonar/api/p42/internal/").build();
+
+    assertThat(mask.getInclusions()).hasSize(1_000);
+    assertThat(mask.acceptResource("org/sonar/api/p999/Foo.class")).isTrue();
+    assertThat(mask.acceptResource("org/sonar/api/p42/Foo.class")).isTrue();
+    assertThat(mask.acceptResource("org/sonar/api/p42/internal/Foo.class")).isFalse();
+    assertThat(mask.acceptResource("org/sonar/api/p1000/Foo.class")).isFalse();
+    assertThat(mask.acceptClass("org.sonar.api.p7.Foo")).isTrue();
+  }
+
+  @Test
+  public void acceptClass_is_consistent_with_acceptResource() throws Exception {
+    Mask mask = Mask.builder()
+      .include("org/sonar/", "org/other/Foo.class", "Bar.class", "org/sonar/Foo.class.txt")
+      .exclude("org/sonar/qube/", "org/sonar/Baz.class", "org/sonar/Baz$Inner.class")
+      .build();
+
+    String[] classnames = {"Bar", "Foo", "org.sonar.Foo", "org.sonar.qube.Foo", "org.sonar.Baz", "org.sonar.Baz$Inner", "org.sonar.Baz$Other",
+      "org.other.Foo", "org.other.Foo$1", "org.other.Fo", "org.other.Foo.class", "org.sonar.Foo.class"};
+    for (String classname : classnames) {
+      assertThat(mask.acceptClass(classname)).as(classname).isEqualTo(mask.acceptResource(classname.replace('.', '/') + ".class"));
+    }
+  }
 }
@@ -0,0 +1,162 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collections;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PackageRoutesTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  ClassloaderBuilder sut = new ClassloaderBuilder().setPackageRouting(true);
+  int jars = 0;
+
+  @Test
+  public void routes_follow_content_of_siblings_and_parent() throws Exception {
+    Map<String, ClassLoader> classloaders = sut
+      .newClassloader("api")
+      .addURL("api", jar("org/api/Api.txt"))
+      .newClassloader("sib1")
+      .addURL("sib1", jar("org/sib1/Sib1.txt", "org/shared/Sib1.txt"))
+      .newClassloader("sib2")
+      .addURL("sib2", jar("org/sib2/Sib2.txt", "org/shared/Sib2.txt"))
+      .newClassloader("plugin")
+      .addURL("plugin", jar("org/plugin/Plugin.txt", "org/shared/Plugin.txt"))
+      .setParent("plugin", "api", Mask.ALL)
+      .addSibling("plugin", "sib1", Mask.ALL)
+      .addSibling("plugin", "sib2", Mask.ALL)
+      .build();
+    ClassRealm plugin = (ClassRealm) classloaders.get("plugin");
+    ClassloaderRef sib1 = plugin.getSiblingRefs().get(0);
+    ClassloaderRef sib2 = plugin.getSiblingRefs().get(1);
+
+    assertRoute(plugin, "org/api/Foo.txt", false, true);
+    assertRoute(plugin, "org/sib1/Foo.txt", false, false, sib1);
+    assertRoute(plugin, "org/sib2/Foo.txt", false, false, sib2);
+    assertRoute(plugin, "org/plugin/Foo.txt", true, false);
+    assertRoute(plugin, "org/shared/Foo.txt", true, false, sib1, sib2);
+    assertThat(plugin.getRoutes().forResource("org/unknown/Foo.txt")).isNull();
+    assertThat(plugin.getRoutes().forClass("org.plugin.Foo")).isSameAs(plugin.getRoutes().forResource("org/plugin/Foo.class"));
+
+    assertThat(plugin.getResource("org/sib2/Sib2.txt")).isNotNull();
+    assertThat(plugin.getResource("org/api/Api.txt")).isNotNull();
+    assertThat(Collections.list(plugin.getResources("org/shared/Sib2.txt"))).hasSize(1);
+    assertThat(plugin.getResource("org/shared/Missing.txt")).isNull();
+    assertThat(plugin.getResource("org/unknown/Missing.txt")).isNull();
+  }
+
+  @Test
+  public void routes_follow_masks() throws Exception {
+    Map<String, ClassLoader> classloaders = sut
+      .newClassloader("api")
+      .addURL("api", jar("org/api/Api.txt", "org/api/internal/Internal.txt"))
+      .setExportMask("api", Mask.builder().exclude("org/api/internal/").build())
+      .newClassloader("sib")
+      .addURL("sib", jar("org/sib/Sib.txt", "org/sib/other/Other.txt"))
+      .newClassloader("plugin")
+      .setParent("plugin", "api", Mask.ALL)
+      .addSibling("plugin", "sib", Mask.builder().include("org/sib/Sib.txt").build())
+      .build();
+    ClassRealm plugin = (ClassRealm) classloaders.get("plugin");
+
+    assertRoute(plugin, "org/api/Foo.txt", false, true);
+    // known directory that is not provided to plugin
+    assertRoute(plugin, "org/api/internal/Foo.txt", false, false);
+    assertRoute(plugin, "org/sib/Foo.txt", false, false, plugin.getSiblingRefs().get(0));
+    assertRoute(plugin, "org/sib/other/Foo.txt", false, false);
+    assertThat(plugin.getResource("org/api/internal/Internal.txt")).isNull();
+    assertThat(plugin.getResource("org/sib/other/Other.txt")).isNull();
+  }
+
+  @Test
+  public void routes_include_transitive_content() throws Exception {
+    Map<String, ClassLoader> classloaders = sut
+      .newClassloader("a")
+      .addURL("a", jar("org/a/A.txt"))
+      .newClassloader("b")
+      .addSibling("b", "a", Mask.ALL)
+      .newClassloader("c")
+      .setParent("c", "b", Mask.ALL)
+      .build();
+    ClassRealm c = (ClassRealm) classloaders.get("c");
+
+    assertRoute(c, "org/a/Foo.txt", false, true);
+    assertThat(c.getResource("org/a/A.txt")).isNotNull();
+  }
+
+  @Test
+  public void classloaders_created_outside_builder_are_always_probed() throws Exception {
+    ClassLoader other = new URLClassLoader(new URL[] {jar("org/other/Other.txt")}, null);
+    Map<String, ClassLoader> classloaders = sut
+      .newClassloader("plugin")
+      .addURL("plugin", jar("org/plugin/Plugin.txt"))
+      .addSibling("plugin", other, Mask.ALL)
+      .build();
+    ClassRealm plugin = (ClassRealm) classloaders.get("plugin");
+
+    assertRoute(plugin, "org/plugin/Foo.txt", true, false, plugin.getSiblingRefs().get(0));
+    assertThat(plugin.getRoutes().forResource("org/other/Other.txt")).isNull();
+    assertThat(plugin.getResource("org/other/Other.txt")).isNotNull();
+  }
+
+  @Test
+  public void no_routes_by_default() throws Exception {
+    Map<String, ClassLoader> classloaders = new ClassloaderBuilder()
+      .newClassloader("plugin")
+      .addURL("plugin", jar("org/plugin/Plugin.txt"))
+      .build();
+
+    assertThat(((ClassRealm) classloaders.get("plugin")).getRoutes()).isNull();
+  }
+
+  private static void assertRoute(ClassRealm realm, String resource, boolean self, boolean parent, ClassloaderRef... siblings) {
+    PackageRoutes.Route route = (PackageRoutes.Route) realm.getRoutes().forResource(resource);
+    assertThat(route).as(resource).isNotNull();
+    assertThat(route.hasSelf()).as(resource).isEqualTo(self);
+    assertThat(route.hasParent()).as(resource).isEqualTo(parent);
+    assertThat(route.getSiblings()).as(resource).containsExactly(siblings);
+  }
+
+  private URL jar(String... entries) throws IOException {
+    File file = new File(temp.getRoot(), "constituent" + (jars++) + ".jar");
+    try (JarOutputStream output = new JarOutputStream(new FileOutputStream(file))) {
+      for (String entry : entries) {
+        output.putNextEntry(new JarEntry(entry));
+        output.write(entry.getBytes());
+        output.closeEntry();
+      }
+    }
+    return file.toURL();
+  }
+}
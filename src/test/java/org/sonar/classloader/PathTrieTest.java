@@ -0,0 +1,121 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+import static java.util.Collections.emptyList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PathTrieTest {
+
+  @Test
+  public void no_patterns_match_nothing() {
+    PathTrie trie = PathTrie.compile(emptyList());
+    assertThat(trie.matches("org/foo/Bar.class")).isFalse();
+    assertThat(trie.matches("")).isFalse();
+  }
+
+  @Test
+  public void root_matches_everything() {
+    PathTrie trie = PathTrie.compile(Arrays.asList("/"));
+    assertThat(trie.matches("org/foo/Bar.class")).isTrue();
+    assertThat(trie.matches("Bar.class")).isTrue();
+  }
+
+  @Test
+  public void match_files_and_directories() {
+    PathTrie trie = PathTrie.compile(Arrays.asList("org/foo/", "org/bar/Bar.class", "org/"));
+    assertThat(trie.matches("org/foo/Foo.class")).isTrue();
+    assertThat(trie.matches("org/foo/sub/Foo.class")).isTrue();
+    assertThat(trie.matches("org/bar/Bar.class")).isTrue();
+    assertThat(trie.matches("org/bar/Baz.class")).isTrue();
+    assertThat(trie.matches("com/Bar.class")).isFalse();
+
+    trie = PathTrie.compile(Arrays.asList("org/foo/", "org/bar/Bar.class"));
+    assertThat(trie.matches("org/foo/")).isTrue();
+    assertThat(trie.matches("org/foo")).isFalse();
+    assertThat(trie.matches("org/foobar/Foo.class")).isFalse();
+    assertThat(trie.matches("org/bar/Bar.class")).isTrue();
+    assertThat(trie.matches("org/bar/Bar.classes")).isFalse();
+    assertThat(trie.matches("org/bar/Bar")).isFalse();
+    assertThat(trie.matches("org/bar/Baz.class")).isFalse();
+  }
+
+  @Test
+  public void same_results_as_linear_matching_of_patterns() {
+    Random random = new Random(42);
+    String[] segments = {"org", "foo", "bar", "Bar", "Bar.class", "config.xml", "a"};
+    for (int round = 0; round < 200; round++) {
+      List<String> patterns = new ArrayList<>();
+      for (int i = 0; i < random.nextInt(20); i++) {
+        patterns.add(randomPath(random, segments, random.nextBoolean()));
+      }
+      PathTrie trie = PathTrie.compile(patterns);
+      for (int i = 0; i < 50; i++) {
+        String name = randomPath(random, segments, false);
+        assertThat(trie.matches(name)).as("%s matches %s", patterns, name).isEqualTo(matchLinearly(patterns, name));
+        String classname = name.replace('/', '.');
+        assertThat(trie.matchesClass(classname)).as("%s matches class %s", patterns, classname)
+          .isEqualTo(matchLinearly(patterns, classname.replace('.', '/') + ".class"));
+      }
+    }
+  }
+
+  @Test
+  public void match_classes() {
+    PathTrie trie = PathTrie.compile(Arrays.asList("org/foo/", "org/bar/Bar.class", "Root.class"));
+    assertThat(trie.matchesClass("org.foo.Foo")).isTrue();
+    assertThat(trie.matchesClass("org.foo.sub.Foo$Inner")).isTrue();
+    assertThat(trie.matchesClass("org.bar.Bar")).isTrue();
+    assertThat(trie.matchesClass("org.bar.Bar$Inner")).isFalse();
+    assertThat(trie.matchesClass("org.bar.Ba")).isFalse();
+    assertThat(trie.matchesClass("Root")).isTrue();
+    assertThat(trie.matchesClass("org.Root")).isFalse();
+  }
+
+  private static String randomPath(Random random, String[] segments, boolean directory) {
+    StringBuilder sb = new StringBuilder();
+    int depth = 1 + random.nextInt(4);
+    for (int i = 0; i < depth; i++) {
+      if (i > 0) {
+        sb.append('/');
+      }
+      sb.append(segments[random.nextInt(segments.length)]);
+    }
+    if (directory) {
+      sb.append('/');
+    }
+    return sb.toString();
+  }
+
+  private static boolean matchLinearly(List<String> patterns, String name) {
+    for (String pattern : patterns) {
+      if (pattern.equals("/") || (pattern.endsWith("/") && name.startsWith(pattern)) || pattern.equals(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PlatformPackagesTest {
+
+  @Test
+  public void contains_packages_of_boot_layer() {
+    PlatformPackages packages = PlatformPackages.of(ClassLoader.getSystemClassLoader());
+    assertThat(packages.containsClass("java.lang.String")).isTrue();
+    assertThat(packages.containsClass("java.sql.Connection")).isTrue();
+    assertThat(packages.containsClass("java.lang.reflect.Missing")).isTrue();
+    assertThat(packages.containsClass("org.sonar.classloader.ClassRealm")).isFalse();
+    assertThat(packages.containsClass("Missing")).isFalse();
+  }
+
+  @Test
+  public void contains_only_packages_visible_from_base_classloader() {
+    PlatformPackages bootstrap = PlatformPackages.of(null);
+    assertThat(bootstrap.containsClass("java.lang.String")).isTrue();
+    // java.sql is defined to the platform classloader
+    assertThat(bootstrap.containsClass("java.sql.Connection")).isFalse();
+    assertThat(bootstrap.size()).isLessThan(PlatformPackages.of(ClassLoader.getPlatformClassLoader()).size());
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.io.File;
+import java.util.List;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RealmLeakDetectorTest {
+
+  RealmLeakDetector detector = new RealmLeakDetector();
+
+  @Test
+  public void report_classloaders_reachable_after_close() throws Exception {
+    ClassloaderGraph graph = buildGraph();
+    ClassLoader leaked = graph.get("the-cl");
+    leaked.loadClass("A");
+    graph.close();
+
+    List<RealmLeakDetector.Leak> leaks = detector.detectLeaks(2);
+
+    assertThat(leaks).hasSize(1);
+    RealmLeakDetector.Leak leak = leaks.get(0);
+    assertThat(leak.getKey()).isEqualTo("the-cl");
+    assertThat(leak.getDefinedClasses()).containsExactly("A");
+    assertThat(leak.getGcCyclesSinceClose()).isGreaterThanOrEqualTo(2);
+    assertThat(leak.toString()).startsWith("Classloader the-cl is reachable ").endsWith(" GC cycles after close. Defined classes: [A]");
+    assertThat(leaked).isNotNull();
+  }
+
+  @Test
+  public void do_not_report_collected_classloaders() throws Exception {
+    buildLoadAndClose();
+
+    assertThat(detector.detectLeaks(2)).isEmpty();
+  }
+
+  @Test
+  public void do_not_report_classloaders_that_are_not_closed() throws Exception {
+    ClassloaderGraph graph = buildGraph();
+    graph.get("the-cl").loadClass("A");
+
+    assertThat(detector.detectLeaks(1)).isEmpty();
+    assertThat(graph.get("the-cl")).isNotNull();
+  }
+
+  @Test
+  public void do_not_report_before_gc_cycles() throws Exception {
+    ClassloaderGraph graph = buildGraph();
+    graph.close();
+
+    assertThat(detector.getLeaks(1_000)).isEmpty();
+    assertThat(detector.getLeaks(0)).extracting(RealmLeakDetector.Leak::getKey).containsExactly("the-cl");
+    assertThat(graph.get("the-cl")).isNotNull();
+  }
+
+  @Test
+  public void count_gc_cycles() {
+    long before = detector.getGcCycles();
+    detector.detectLeaks(1);
+
+    assertThat(detector.getGcCycles()).isGreaterThan(before);
+  }
+
+  private void buildLoadAndClose() throws Exception {
+    ClassloaderGraph graph = buildGraph();
+    graph.get("the-cl").loadClass("A");
+    graph.close();
+  }
+
+  private ClassloaderGraph buildGraph() throws Exception {
+    return new ClassloaderBuilder()
+      .setLeakDetector(detector)
+      .newClassloader("the-cl")
+      .addURL("the-cl", new File("tester/a.jar").toURL())
+      .buildGraph();
+  }
+}
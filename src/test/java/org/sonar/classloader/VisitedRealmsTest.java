@@ -0,0 +1,65 @@
+/*
+ * Sonar Classloader
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.classloader;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class VisitedRealmsTest {
+
+  @Test
+  public void realms_are_visited_once() {
+    List<ClassRealm> realms = new ArrayList<>();
+    for (int i = 0; i < 40; i++) {
+      realms.add(new ClassRealm("realm" + i, null));
+    }
+    VisitedRealms visited = VisitedRealms.startingAt(realms.get(0));
+    assertThat(visited.add(realms.get(0))).isFalse();
+    for (int i = 1; i < realms.size(); i++) {
+      assertThat(visited.add(realms.get(i))).isTrue();
+      assertThat(visited.add(realms.get(i))).isFalse();
+      assertThat(visited.add(realms.get(i / 2))).isFalse();
+      assertThat(visited.size()).isEqualTo(i + 1);
+    }
+  }
+
+  @Test
+  public void realms_are_compared_by_identity() {
+    VisitedRealms visited = new VisitedRealms();
+    assertThat(visited.add(new ClassRealm("same", null))).isTrue();
+    assertThat(visited.add(new ClassRealm("same", null))).isTrue();
+  }
+
+  @Test
+  public void base_classloaders_are_probed_once() {
+    ClassLoader base = new URLClassLoader(new URL[0]);
+    VisitedRealms visited = VisitedRealms.startingAt(new ClassRealm("realm", base));
+    assertThat(visited.probeBase(base)).isFalse();
+    assertThat(visited.probeBase(null)).isTrue();
+    assertThat(visited.probeBase(null)).isFalse();
+    assertThat(visited.probeBase(getClass().getClassLoader())).isTrue();
+    assertThat(visited.probeBase(getClass().getClassLoader())).isFalse();
+  }
+}